@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import boulder.runner.api.ingest.TrailCsvReader;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Time to read the trail head CSV, into a servable TrailStore the way the
+ * TrailLoader does it and into a JSONArray of a JSONObject per record the
+ * way the original initialize() did it.
+ *
+ * @author Kniggit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestBenchmark {
+
+    @Param({ "200", "10000", "100000" })
+    public int rows;
+
+    private byte[] csv;
+
+    @Setup
+    public void generate() {
+        csv = TrailGenerator.generate(rows, TrailGenerator.SEED);
+    }
+
+    @Benchmark
+    public TrailStore csvReader() throws IOException {
+        return TrailCsvReader.read(open());
+    }
+
+    @Benchmark
+    public JSONArray jsonArray() throws IOException {
+        JSONArray trails = new JSONArray();
+        try(CSVParser parser = new CSVParser(open(), CSVFormat.RFC4180.withHeader().withDelimiter(','))) {
+            for(CSVRecord record : parser) {
+                JSONObject trailObject = new JSONObject();
+                for(Entry<String, String> entry : record.toMap().entrySet()) {
+                    trailObject.put(entry.getKey(), entry.getValue());
+                }
+                trails.put(trailObject);
+            }
+        }
+        return trails;
+    }
+
+    private Reader open() {
+        return new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8);
+    }
+}
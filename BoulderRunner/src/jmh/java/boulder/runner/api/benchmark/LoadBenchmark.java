@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.sun.net.httpserver.HttpServer;
+
+import boulder.runner.api.BoulderRunnerApplication;
+import boulder.runner.api.store.TrailRepository;
+
+/**
+ * End to end load on the running application. A stub HTTP server stands
+ * in for the City of Boulder and serves a synthetic CSV, the application
+ * loads it on startup like it would the real one, and the benchmark
+ * threads then send requests over HTTP and read the whole response.
+ *
+ * Every benchmark but search cycles through a pool of requests with
+ * distinct filters. With cache=hit the pool fits in the response cache, so
+ * after the warmup every response is cached. With cache=miss the pool
+ * holds twice as many requests as the cache and is cycled in order, so the
+ * LRU cache has evicted a response before it is asked for again and
+ * every request is filtered and encoded.
+ *
+ * Sampling reports latency percentiles next to the throughput, and
+ * -prof gc adds the allocation rate of client and server, which share the
+ * JVM.
+ *
+ * @author Kniggit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+
+    // Responses and compiled queries cached by the application
+    private static final int CACHE_ENTRIES = 256;
+    // Distinct requests of a benchmark whose responses all stay cached
+    private static final int CACHED_REQUESTS = 16;
+    private static final String[] CLASSES = { "T1", "T2", "T3", "T4" };
+
+    @Param({ "10000" })
+    public int rows;
+
+    // servlet for Spring MVC on Tomcat, reactive for WebFlux on Netty
+    @Param({ "servlet", "reactive" })
+    public String stack;
+
+    // hit to only request cached responses, miss to never request them
+    @Param({ "hit", "miss" })
+    public String cache;
+
+    private HttpServer source;
+    private Path snapshotDirectory;
+    private ConfigurableApplicationContext application;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private String[] allPaths;
+    private String[] filteredPaths;
+    private String[] pagedPaths;
+    private String[] facetPaths;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        byte[] csv = TrailGenerator.generate(rows, TrailGenerator.SEED);
+        source = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        source.createContext("/OSMPTrailheads.csv", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/csv");
+            exchange.getResponseHeaders().set("ETag", "\"" + rows + "\"");
+            exchange.sendResponseHeaders(200, csv.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(csv);
+            }
+        });
+        source.start();
+
+        snapshotDirectory = Files.createTempDirectory("boulderrunner");
+        application = SpringApplication.run(BoulderRunnerApplication.class,
+                "--server.port=0",
+                "--spring.main.web-application-type=" + stack,
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--boulderrunner.source.url=http://localhost:" + source.getAddress().getPort() + "/OSMPTrailheads.csv",
+                "--boulderrunner.snapshot.file=" + snapshotDirectory.resolve("trails.snapshot"),
+                "--boulderrunner.cache.max-entries=" + CACHE_ENTRIES);
+        baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+
+        // The trails are loaded by the scheduled refresh, wait for it
+        TrailRepository repository = application.getBean(TrailRepository.class);
+        long deadline = System.currentTimeMillis() + 60000;
+        while(repository.current().size() < rows) {
+            if(System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Trails were not loaded from " + source.getAddress());
+            }
+            Thread.sleep(50);
+        }
+
+        int pool = "hit".equals(cache) ? CACHED_REQUESTS : 2 * CACHE_ENTRIES;
+        // All trails but one, the generated AccessIDs start at 100
+        allPaths = paths(pool, i -> "/trails?AccessID%21=" + (100 + i));
+        filteredPaths = paths(pool, i -> "/trails?" + filters(i, "Fee"));
+        pagedPaths = paths(pool, i -> "/trails?" + filters(i, "BikeTrail")
+                + "&fields=AccessName,Address,ParkSpaces&limit=10");
+        facetPaths = paths(pool, i -> "/trails/facets?facet=Fee,Class&sum=ParkSpaces&" + filters(i, "BikeRack"));
+    }
+
+    /**
+     * Returns the i-th distinct combination of a Yes/No attribute, a class
+     * and a minimum number of parking spaces
+     */
+    private static String filters(int i, String yesNo) {
+        // > is sent encoded, Netty rejects it raw
+        return yesNo + "=" + (i % 2 == 0 ? "Yes" : "No") + "&Class=" + CLASSES[i / 2 % CLASSES.length]
+                + "&ParkSpaces%3E=" + i / (2 * CLASSES.length);
+    }
+
+    private static String[] paths(int size, IntFunction<String> path) {
+        String[] paths = new String[size];
+        for(int i = 0; i < size; i++) {
+            paths[i] = path.apply(i);
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the next path of the pool. The pool is cycled in order
+     * across all threads.
+     */
+    private String next(String[] paths) {
+        return paths[Math.floorMod(requests.getAndIncrement(), paths.length)];
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        application.close();
+        source.stop(0);
+        Files.deleteIfExists(snapshotDirectory.resolve("trails.snapshot"));
+        Files.deleteIfExists(snapshotDirectory);
+    }
+
+    /**
+     * Read buffer of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        byte[] buffer = new byte[64 * 1024];
+    }
+
+    @Benchmark
+    public long allTrails(Client client) throws IOException {
+        return get(client, next(allPaths));
+    }
+
+    @Benchmark
+    public long filteredTrails(Client client) throws IOException {
+        return get(client, next(filteredPaths));
+    }
+
+    @Benchmark
+    public long pagedFields(Client client) throws IOException {
+        return get(client, next(pagedPaths));
+    }
+
+    @Benchmark
+    public long search(Client client) throws IOException {
+        return get(client, "/trails/search?q=flagst");
+    }
+
+    @Benchmark
+    public long facets(Client client) throws IOException {
+        return get(client, next(facetPaths));
+    }
+
+    // Reads the whole response so the connection is kept alive
+    private long get(Client client, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        if(connection.getResponseCode() != 200) {
+            throw new IllegalStateException(path + " returned " + connection.getResponseCode());
+        }
+        long length = 0;
+        try(InputStream in = connection.getInputStream()) {
+            for(int read = in.read(client.buffer); read >= 0; read = in.read(client.buffer)) {
+                length += read;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.benchmark;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.query.QueryEngine;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Time to find the rows of the trails matching 0, 1 and several filters,
+ * as findTrails does, with the compiled plan cached and compiled on every
+ * call, and the way the original findTrails scanned every JSONObject of
+ * the trails.
+ *
+ * @author Kniggit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+    @Param({ "200", "10000", "100000" })
+    public int rows;
+
+    // Query strings as they would be sent to /trails
+    @Param({ "", "Fee=Yes", "Fee=Yes&Class=T3&BikeRack=Yes&ParkSpaces>=20" })
+    public String query;
+
+    private TrailStore store;
+    private JSONArray trails;
+    private Map<String, List<String>> filters;
+    private Map<String, String> searchParams;
+    private QueryEngine cachingEngine;
+    private QueryEngine compilingEngine;
+
+    @Setup
+    public void load() {
+        store = TrailGenerator.store(rows);
+        trails = store.toJSONArray(all(rows));
+        filters = parse(query);
+        // The original controller only kept the first value of a parameter
+        searchParams = new LinkedMultiValueMap<String, String>(filters).toSingleValueMap();
+        cachingEngine = new QueryEngine(256);
+        compilingEngine = new QueryEngine(0);
+    }
+
+    @Benchmark
+    public BitSet cachedPlan() {
+        return cachingEngine.find(store, filters);
+    }
+
+    @Benchmark
+    public BitSet compiledPlan() {
+        return compilingEngine.find(store, filters);
+    }
+
+    @Benchmark
+    public JSONArray jsonArrayScan() {
+        JSONArray matchingTrails = new JSONArray();
+        Iterator<Object> it = trails.iterator();
+        while(it.hasNext()) {
+            JSONObject trail = (JSONObject)it.next();
+            boolean match = true;
+            for(Entry<String, String> entry : searchParams.entrySet()) {
+                if(!trail.has(entry.getKey()) || trail.getString(entry.getKey()).compareTo(entry.getValue()) != 0) {
+                    match = false;
+                    break;
+                }
+            }
+            if(match) {
+                matchingTrails.put(trail);
+            }
+        }
+        return matchingTrails;
+    }
+
+    private static BitSet all(int rows) {
+        BitSet all = new BitSet(rows);
+        all.set(0, rows);
+        return all;
+    }
+
+    // Splits the query string the way the servlet container does
+    static Map<String, List<String>> parse(String query) {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        for(String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            if(equals > 0) {
+                params.add(param.substring(0, equals), param.substring(equals + 1));
+            }
+        }
+        return new LinkedHashMap<String, List<String>>(params);
+    }
+}
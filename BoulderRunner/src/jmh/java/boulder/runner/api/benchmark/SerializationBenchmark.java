@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import boulder.runner.api.TrailRequest.Format;
+import boulder.runner.api.TrailWriter;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Time to serialize all trails to a /trails response: the original
+ * JSONArray.toString(), the concatenation of the pre-encoded trails, and
+ * a projection of a few fields as NDJSON.
+ *
+ * @author Kniggit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SerializationBenchmark {
+
+    @Param({ "200", "10000", "100000" })
+    public int rows;
+
+    private TrailStore store;
+    private BitSet all;
+    private TrailWriter projection;
+    private JSONArray trails;
+
+    @Setup
+    public void load() {
+        store = TrailGenerator.store(rows);
+        all = new BitSet(rows);
+        all.set(0, rows);
+        projection = new TrailWriter(store, Arrays.asList("AccessID", "AccessName", "ParkSpaces"), Format.NDJSON);
+        // The trails as the original controller held them
+        trails = store.toJSONArray(all);
+    }
+
+    @Benchmark
+    public String jsonArray() {
+        return trails.toString();
+    }
+
+    @Benchmark
+    public byte[] preEncoded() {
+        return store.encode(all);
+    }
+
+    @Benchmark
+    public int projectedNdjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        projection.writeStart(out);
+        int written = 0;
+        for(int row = all.nextSetBit(0); row >= 0; row = all.nextSetBit(row + 1)) {
+            projection.writeElement(written++, row, out);
+        }
+        projection.writeEnd(out);
+        return written;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import boulder.runner.api.similar.SimilarityIndex;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Time to rank the similar trails of every trail when trails are loaded,
+ * and to answer /trails/{AccessID}/similar and /trails/similar with 5
+ * liked trails once they are.
+ *
+ * @author Kniggit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SimilarityBenchmark {
+
+    @Param({ "200", "2000", "10000" })
+    public int rows;
+
+    private TrailStore store;
+    private SimilarityIndex index;
+    private int[] liked;
+
+    @Setup
+    public void load() {
+        store = TrailGenerator.store(rows);
+        index = SimilarityIndex.of(store);
+        liked = new int[] { 0, rows / 5, 2 * rows / 5, 3 * rows / 5, 4 * rows / 5 };
+    }
+
+    @Benchmark
+    public SimilarityIndex build() {
+        return SimilarityIndex.of(store);
+    }
+
+    @Benchmark
+    public int[] similarTrail() {
+        return index.similar(rows / 2, 10);
+    }
+
+    @Benchmark
+    public int[] similarToLiked() {
+        return index.similar(liked, 10);
+    }
+}
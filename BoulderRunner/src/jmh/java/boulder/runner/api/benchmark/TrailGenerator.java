@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import boulder.runner.api.ingest.TrailCsvReader;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Generates synthetic trail head CSVs of any size with the attributes of
+ * the City of Boulder dump and value cardinalities close to it: unique
+ * IDs and addresses, names drawn from a few thousand combinations, and
+ * a handful of values for the Yes/No, class and type attributes, skewed
+ * the way the real ones are.
+ *
+ * The same rows and seed always generate the same CSV, so numbers of
+ * different runs can be compared.
+ *
+ * @author Kniggit
+ */
+public final class TrailGenerator {
+
+    public static final long SEED = 2016;
+
+    static final String[] HEADER = { "FID", "AccessID", "AccessName", "AKA", "AccessType", "Address", "Class",
+            "Fee", "ParkSpaces", "BikeRack", "BikeTrail", "HorseTrail", "THLeash", "DogCompost", "DogTube",
+            "TrashCans", "RecycleBin", "RESTROOMS", "PICNIC", "Grills", "FISHING", "ADAfacilit", "ADAfacName",
+            "ADAparking", "ADAtoilet", "ADApicnic", "ADAtrail", "ADAsurface", "ADAfishing", "ADAcamping",
+            "DateFrom", "DateTo" };
+
+    private static final String[] PLACES = { "Flagstaff", "Chautauqua", "Mesa", "Bear Canyon", "Sanitas",
+            "Wonderland Lake", "Eldorado", "Doudy Draw", "Marshall Mesa", "Teller Farm", "Boulder Valley",
+            "Sawhill", "Walden Ponds", "Buckingham", "Lefthand", "Fourmile", "Shanahan", "Dowdy", "Gregory Canyon",
+            "Realization Point", "South Boulder Creek", "White Rocks", "Coal Creek", "Davidson Mesa", "Anne U White",
+            "Foothills", "Four Mile Canyon", "Green Mountain", "Royal Arch", "Skunk Canyon", "Cragmoor", "Hogback",
+            "Lion's Lair", "Mount Sanitas", "NCAR", "Fowler", "Spring Brook", "Lost Gulch", "Bobolink", "Gunbarrel" };
+    private static final String[] FEATURES = { "Trailhead", "Summit", "Park", "Access", "Trail", "Loop", "Overlook",
+            "Open Space", "Ranch", "Picnic Area" };
+    private static final String[] SUFFIXES = { "", " East", " West", " North", " South", " Upper", " Lower" };
+    private static final String[] STREETS = { "Flagstaff Summit Rd", "Baseline Rd", "95th St", "Broadway",
+            "Left-hand Canyon Dr", "Linden Ave", "Lee Hill Dr", "Eldorado Springs Dr", "Marshall Rd", "Valmont Rd",
+            "Cherryvale Rd", "Arapahoe Ave", "Jay Rd", "Table Mesa Dr", "Mapleton Ave", "4th St", "Gregory Canyon Rd",
+            "Sunshine Canyon Dr", "Fourmile Canyon Dr", "75th St", "Lookout Rd", "South Boulder Rd", "Hwy 93",
+            "Davidson Mesa Rd", "Chautauqua Park Rd" };
+    private static final String[] FACILITIES = { "Wood Shelter", "Nature Center", "Ranger Cottage",
+            "Picnic Shelter", "Fishing Pier", "Overlook Deck", "Visitor Kiosk" };
+    private static final String[] ACCESS_TYPES = { "TH", "TH", "TH", "TH", "PA", "NA" };
+    private static final String[] CLASSES = { "T1", "T2", "T3", "T3", "T3", "T4" };
+    private static final String[] ADA_TRAILS = { "No", "No", "Easy", "Moderate", "Difficult" };
+    private static final String[] ADA_SURFACES = { "No", "Asphalt", "Concrete", "Crusher Fines" };
+    private static final String[] HORSE_TRAILS = { "Not Recommended", "Possible", "Recommended" };
+    private static final String[] DATES_FROM = { "2005-12-31 00:00:00", "2005-12-31 00:00:00",
+            "2005-12-31 00:00:00", "2012-05-01 00:00:00", "2016-06-15 00:00:00" };
+    private static final String[] DATES_TO = { "2099-12-31 00:00:00", "2099-12-31 00:00:00",
+            "2099-12-31 00:00:00", "2099-12-31 00:00:00", "2018-10-31 00:00:00" };
+
+    private TrailGenerator() {
+    }
+
+    /**
+     * Writes the header and the given number of synthetic trails as CSV
+     * @param rows
+     * @param seed
+     * @param out
+     * @throws IOException
+     */
+    public static void write(int rows, long seed, Writer out) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.RFC4180.withHeader(HEADER));
+        String[] values = new String[HEADER.length];
+        for(int row = 0; row < rows; row++) {
+            // Most trail heads have parking, restrooms and trash cans, few
+            // have fishing or camping
+            boolean facilities = random.nextInt(10) < 7;
+            int i = 0;
+            values[i++] = Integer.toString(row);
+            values[i++] = Integer.toString(100 + row) + (random.nextInt(20) == 0 ? "a" : "");
+            values[i++] = pick(random, PLACES) + " " + pick(random, FEATURES) + pick(random, SUFFIXES);
+            values[i++] = random.nextInt(10) == 0 ? pick(random, PLACES) : " ";
+            values[i++] = pick(random, ACCESS_TYPES);
+            values[i++] = (1 + random.nextInt(9999)) + " " + pick(random, STREETS);
+            values[i++] = pick(random, CLASSES);
+            values[i++] = yesNo(random, 3);
+            values[i++] = random.nextInt(20) == 0 ? " "
+                    : Integer.toString(random.nextInt(4) == 0 ? 0 : 2 + random.nextInt(60));
+            values[i++] = yesNo(random, 6);
+            values[i++] = yesNo(random, 4);
+            values[i++] = pick(random, HORSE_TRAILS);
+            values[i++] = yesNo(random, 9);
+            values[i++] = yesNo(random, 2);
+            values[i++] = random.nextInt(3) == 0 ? "0.0" : "1.0";
+            values[i++] = (facilities ? 1 + random.nextInt(8) : 0) + ".0";
+            values[i++] = yesNo(random, facilities ? 7 : 1);
+            values[i++] = yesNo(random, facilities ? 8 : 1);
+            values[i++] = yesNo(random, facilities ? 6 : 1);
+            values[i++] = yesNo(random, facilities ? 5 : 0);
+            values[i++] = yesNo(random, 1);
+            values[i++] = yesNo(random, facilities ? 5 : 0);
+            values[i++] = random.nextInt(4) == 0 ? pick(random, FACILITIES) : " ";
+            values[i++] = yesNo(random, facilities ? 8 : 2);
+            values[i++] = yesNo(random, facilities ? 7 : 0);
+            values[i++] = yesNo(random, facilities ? 5 : 0);
+            values[i++] = pick(random, ADA_TRAILS);
+            values[i++] = pick(random, ADA_SURFACES);
+            values[i++] = yesNo(random, 1);
+            values[i++] = random.nextInt(50) == 0 ? "Yes" : "No";
+            values[i++] = pick(random, DATES_FROM);
+            values[i++] = pick(random, DATES_TO);
+            printer.printRecord((Object[]) values);
+        }
+        printer.flush();
+    }
+
+    /**
+     * Returns the CSV of the given number of synthetic trails as UTF-8
+     * @param rows
+     * @param seed
+     * @return
+     */
+    public static byte[] generate(int rows, long seed) {
+        ByteArrayOutputStream csv = new ByteArrayOutputStream(rows * 400);
+        try(Writer out = new OutputStreamWriter(csv, StandardCharsets.UTF_8)) {
+            write(rows, seed, out);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return csv.toByteArray();
+    }
+
+    /**
+     * Returns a TrailStore of the given number of synthetic trails, read
+     * the way the TrailLoader reads the real CSV. The CSV goes through a
+     * temporary file so a million trails do not need the CSV in memory
+     * next to the store.
+     * @param rows
+     * @return
+     */
+    public static TrailStore store(int rows) {
+        try {
+            Path csv = Files.createTempFile("trails", ".csv");
+            try {
+                try(Writer out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                    write(rows, SEED, out);
+                }
+                try(Reader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+                    return TrailCsvReader.read(in);
+                }
+            } finally {
+                Files.delete(csv);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    // Yes with a probability of yesInTen in 10
+    private static String yesNo(SplittableRandom random, int yesInTen) {
+        return random.nextInt(10) < yesInTen ? "Yes" : "No";
+    }
+}
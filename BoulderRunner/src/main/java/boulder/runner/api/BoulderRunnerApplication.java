@@ -17,15 +17,32 @@ package boulder.runner.api;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.embedded.tomcat.ConfigurableTomcatWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
- * Entry point into the Boulder Runner application
+ * Entry point into the Boulder Runner application. Scheduling is enabled
+ * so the trail data is loaded and refreshed in the background.
  * @author Kniggit
  */
 @SpringBootApplication
+@EnableScheduling
 public class BoulderRunnerApplication {
 
 	public static void main(String[] args) {
 		SpringApplication.run(BoulderRunnerApplication.class, args);
 	}
+
+	/**
+	 * Lets Tomcat accept unencoded range comparisons such as
+	 * /trails?ParkSpaces>=20, which it rejects by default
+	 * @return
+	 */
+	@Bean
+	public WebServerFactoryCustomizer<ConfigurableTomcatWebServerFactory> relaxedQueryChars() {
+		return factory -> factory.addConnectorCustomizers(
+				connector -> connector.setAttribute("relaxedQueryChars", "<>"));
+	}
 }
\ No newline at end of file
@@ -15,72 +15,103 @@
  */
 package boulder.runner.api;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.URL;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
-import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.json.JSONArray;
-import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.HttpMediaTypeNotSupportedException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import boulder.runner.api.batch.BatchRequest;
+import boulder.runner.api.batch.TrailBatch;
+import boulder.runner.api.facet.FacetRequest;
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.similar.SimilarRequest;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+
 /**
  * This class defines and implements the endpoint that provides
  * accessibility to the City of Boulder trail information
  * 
+ * The responses are produced by the {@link TrailService}, this class
+ * only maps the servlet requests to it.
+ * 
+ * NOTE: Only used when running on the servlet stack. With
+ * spring.main.web-application-type=reactive the endpoints are served by
+ * the WebFlux router in the reactive package instead.
+ * 
  * @author Kniggit
  */
 @RestController
+@ConditionalOnWebApplication(type = Type.SERVLET)
 public class BoulderRunnerController {
 
-    private static URL defaultBoulderTrailsFile = null;
-    private JSONArray trails = new JSONArray();
+    /** Media type of newline delimited JSON */
+    public static final String NDJSON_VALUE = TrailRequest.NDJSON_VALUE;
+
+    /** Parameter holding the text to search for */
+    public static final String QUERY = TrailService.QUERY;
+
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final TrailRepository repository;
+    private final TrailService service;
 
     /**
-     * Method called on initialization that downloads the latest trail head
-     * data and places it into memory.
+     * Creates a controller with its own, empty, trail repository and
+     * the default response cache size
      */
-    @PostConstruct
-    public void initialize() {
-        // Grab the trail information and load it into memory
-        try {
-            defaultBoulderTrailsFile = new URL("https://www-static.bouldercolorado.gov/docs/opendata/OSMPTrailheads.csv");
-            Reader reader = new InputStreamReader(defaultBoulderTrailsFile.openStream());
-            CSVFormat format = CSVFormat.RFC4180.withHeader().withDelimiter(',');
-            CSVParser parser = new CSVParser(reader, format);
-            
-            // Read all records and put them in a JSONArray that will then be
-            // added to the Table
-            for(CSVRecord record : parser) {
-                // Convert this record to a JSONObject so it can be returned
-                // in a nicer format
-                JSONObject trailObject = new JSONObject();
-                Map<String, String> kvp = record.toMap();
-                for(Entry<String, String> entry : kvp.entrySet()) {
-                    trailObject.put(entry.getKey(), entry.getValue());
-                }
-                
-                // Add this JSONObject to the JSONArray
-                trails.put(trailObject);
-            }
-
-            // Close connection, clean up
-            parser.close();
-        } catch (IOException e) {
-            // No logging system in place. Write to STDERR
-            System.err.println(e.getMessage());
-        }
+    public BoulderRunnerController() {
+        this(new TrailRepository(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a controller whose metrics are only kept in memory
+     * @param repository Repository holding the trails being served
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     */
+    public BoulderRunnerController(TrailRepository repository, int cacheSize) {
+        this(repository, cacheSize, new TrailMetrics(repository));
+    }
+
+    /**
+     * @param repository Repository holding the trails being served
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     * @param metrics Metrics the queries are recorded to
+     */
+    @Autowired
+    public BoulderRunnerController(TrailRepository repository,
+            @Value("${boulderrunner.cache.max-entries:" + DEFAULT_CACHE_SIZE + "}") int cacheSize,
+            TrailMetrics metrics) {
+        this.repository = repository;
+        this.service = new TrailService(repository, cacheSize, metrics);
     }
 
     /**
@@ -89,69 +120,221 @@ public class BoulderRunnerController {
      * @param searchParams
      * @return 
      */
-    @RequestMapping("/trails")
-    public String trails(@RequestParam Map<String, String> searchParams) {
-        
-        // Find the trails that match
+    public String trails(Map<String, String> searchParams) {
         // If no search parameters are passed in, use an empty one
         if(searchParams == null) {
             searchParams = new HashMap<String, String>();
         }
-        JSONArray results = findTrails(searchParams);
-        
-        // Return the results as a String
-        return results.toString();
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        params.setAll(searchParams);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            service.trails(getTrailStore(), params, null).write(out);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
     }
-    
+
     /**
-     * This helper method takes a Map of parameters where:
-     * Key = Trail Attribute
-     * Value = Value of Trail Attribute
-     * 
-     * It returns a JSONArray of all trails matching the parameters
-     * NOTE: It only handles "AND" , no "OR" operations at this time.
-     * NOTE: THERE IS NO SANITIZING OF USER INPUT!!!
+     * Given search parameters, this endpoint will return all trails
+     * that match the search parameters. Besides equality, parameters may
+     * compare with !=, &gt;=, &lt;= and ~= (starts with), be repeated to
+     * match any of several values, or be combined with OR (see
+     * {@link QueryParser}). The reserved parameters offset, limit, fields
+     * and format control the response (see {@link TrailRequest}). Asking
+     * for application/x-ndjson returns one trail per line, asking for
+     * text/event-stream returns one server-sent event per trail.
+     *
+     * The trails are written to the response one at a time. Complete
+     * responses are cached per normalized set of search parameters until
+     * the trail data changes. The parse, filter and serialize times of
+     * every request are recorded (see {@link TrailMetrics}).
      * @param searchParams
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping("/trails")
+    public void trails(@RequestParam MultiValueMap<String, String> searchParams, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        write(service.trails(getTrailStore(), searchParams, request.getHeader(HttpHeaders.ACCEPT)), response);
+    }
+
+    /**
+     * Given the text typed so far in q, this endpoint returns the trails
+     * whose name, facility name or address best match it, best match
+     * first. Small typos are tolerated. The results can be narrowed with
+     * the same search parameters as /trails. limit defaults to 10.
+     * @param searchParams
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping("/trails/search")
+    public void search(@RequestParam MultiValueMap<String, String> searchParams, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        write(service.search(getTrailStore(), searchParams, request.getHeader(HttpHeaders.ACCEPT)), response);
+    }
+
+    /**
+     * Counts the values of the attributes passed as facet and sums the
+     * numeric attributes passed as sum, over all trails matching the
+     * search parameters (see {@link FacetRequest}). Only the counts are
+     * returned, not the trails.
+     * @param searchParams
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping("/trails/facets")
+    public void facets(@RequestParam MultiValueMap<String, String> searchParams, HttpServletResponse response)
+            throws IOException {
+        write(service.facets(getTrailStore(), searchParams), response);
+    }
+
+    /**
+     * Answers several /trails queries in one request. The body is a JSON
+     * array with the search parameters of every query (see
+     * {@link BatchRequest}), fields is passed as a query parameter and
+     * applies to all of them. The parameters shared by several queries are
+     * only evaluated once, and every trail is returned once with the
+     * queries referring to it by index (see {@link TrailBatch}). Bodies
+     * that are not application/json are rejected as unsupported.
+     * @param body
+     * @param fields
+     * @param request
+     * @param response
+     * @throws IOException
+     * @throws HttpMediaTypeNotSupportedException
+     */
+    @RequestMapping(value = "/trails/batch", method = RequestMethod.POST)
+    public void batch(@RequestBody(required = false) String body,
+            @RequestParam(value = TrailRequest.FIELDS, required = false) String fields,
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException, HttpMediaTypeNotSupportedException {
+        // Checked here rather than with consumes, a request no mapping
+        // consumes never reaches the exception handlers of this controller
+        MediaType contentType = request.getContentType() != null
+                ? MediaType.parseMediaType(request.getContentType()) : MediaType.APPLICATION_OCTET_STREAM;
+        if(!MediaType.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            throw new HttpMediaTypeNotSupportedException(contentType,
+                    Collections.singletonList(MediaType.APPLICATION_JSON));
+        }
+        write(service.batch(getTrailStore(), body, fields), response);
+    }
+
+    /**
+     * Returns the k trails with the most similar amenities to the trail
+     * with the AccessID, most similar first (see {@link SimilarRequest}).
+     * The similar trails of every trail are ranked when the trails are
+     * loaded, so this is a lookup.
+     * @param accessId
+     * @param params
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping("/trails/{accessId}/similar")
+    public void similar(@PathVariable String accessId, @RequestParam MultiValueMap<String, String> params,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        write(service.similar(getTrailStore(), accessId, params, request.getHeader(HttpHeaders.ACCEPT)),
+                response);
+    }
+
+    /**
+     * Returns the k trails with the most similar amenities to all trails
+     * whose AccessIDs are passed as liked, most similar first. The liked
+     * trails are not returned.
+     * @param params
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping("/trails/similar")
+    public void similar(@RequestParam MultiValueMap<String, String> params, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        write(service.similarToLiked(getTrailStore(), params, request.getHeader(HttpHeaders.ACCEPT)), response);
+    }
+
+    /**
+     * Writes the response of the service to the servlet response
+     * @param trailResponse
+     * @param response
+     * @throws IOException
+     */
+    private static void write(TrailResponse trailResponse, HttpServletResponse response) throws IOException {
+        response.setContentType(trailResponse.getContentType());
+        trailResponse.write(response.getOutputStream());
+    }
+
+    /**
+     * Reports invalid request parameters as a bad request
+     * @param e
+     * @return
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * Reports unknown trails as not found
+     * @param e
+     * @return
+     */
+    @ExceptionHandler(NoSuchElementException.class)
+    public ResponseEntity<String> notFound(NoSuchElementException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * Reports a batch that is not JSON as unsupported, the same way the
+     * reactive TrailHandler does
+     * @param e
+     * @return
+     */
+    @ExceptionHandler(HttpMediaTypeNotSupportedException.class)
+    public ResponseEntity<String> unsupportedMediaType(HttpMediaTypeNotSupportedException e) {
+        MediaType contentType = e.getContentType() != null ? e.getContentType() : MediaType.APPLICATION_OCTET_STREAM;
+        return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).contentType(MediaType.TEXT_PLAIN)
+                .body("Content type " + contentType + " is not supported, use " + MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the response cache
+     * @return
+     */
+    @RequestMapping(value = "/trails/cache", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public String cacheStats() {
+        return service.getCacheStats();
+    }
+    
+    /**
+     * Returns the indexed store for the current trails. The store is
+     * rebuilt whenever the trails returned by getTrails() are replaced.
      * @return
      */
-    private JSONArray findTrails(Map<String, String> searchParams) {
-        JSONArray matchingTrails = new JSONArray();
-
-        // Search through the JSONArray for all JSONObjects that
-        // match the searchParams
-        Iterator<Object> it = getTrails().iterator();
-        while(it.hasNext()) {
-            JSONObject trail = (JSONObject)it.next();
-            
-            // Loop through each entry in the searchParams and if there
-            // is not a match at any point, move on. Otherwise, add this
-            // to the list of trails that will be returned to the caller
-            // NOTE: If there are no search parameters, ALL ENTRIES WILL BE RETURNED
-            boolean match = true;
-            for(Entry<String, String> entry : searchParams.entrySet()) {
-                if(trail.has(entry.getKey()) && trail.getString(entry.getKey()).compareTo(entry.getValue()) == 0) {
-                    // Match, keep going
-                } else {
-                    // No match, skip this trail
-                    match = false;
-                    break;
-                }
-            }
-            
-            if(match) {
-                matchingTrails.put(trail);
-            }
+    private TrailStore getTrailStore() {
+        TrailStore store = repository.current();
+        JSONArray current = getTrails();
+        if(current != null && (store.getSource() != current || store.size() != current.length())) {
+            // Only publish if no newer trails were loaded in the meantime
+            TrailStore rebuilt = TrailStore.of(current);
+            repository.publish(store, rebuilt);
+            store = rebuilt;
         }
-        // Return the results
-        return matchingTrails;
+        return store;
     }
 
     /**
      * Getter for the Trails
+     * NOTE: Returns null when the trails were loaded from a snapshot file
+     * and only exist in the indexed store.
      * @return
      */
     public JSONArray getTrails() {
-        return trails;
+        return repository.current().getSource();
     }
 
     /**
@@ -159,6 +342,6 @@ public class BoulderRunnerController {
      * @param trails
      */
     public void setTrails(JSONArray trails) {
-        this.trails = trails;
+        repository.publish(TrailStore.of(trails));
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Bounded LRU cache of encoded /trails responses keyed by the normalized
+ * search parameters (see QueryParser.normalize).
+ *
+ * Every entry belongs to the TrailStore it was computed from. As soon as
+ * a lookup is made against a different store the whole cache is dropped,
+ * so a response computed from old trail data is never served.
+ *
+ * @author Kniggit
+ */
+public class ResponseCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, byte[]> entries;
+    private TrailStore store;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries Maximum number of responses to hold, 0 disables the cache
+     */
+    public ResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, byte[]> eldest) {
+                if(size() > ResponseCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached response for the key, or null if there is none
+     * for the given store
+     * @param store
+     * @param key
+     * @return
+     */
+    public synchronized byte[] get(TrailStore store, String key) {
+        invalidateIfStale(store);
+        byte[] response = entries.get(key);
+        if(response == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return response;
+    }
+
+    /**
+     * Caches the response computed for the key from the given store
+     * @param store
+     * @param key
+     * @param response
+     */
+    public synchronized void put(TrailStore store, String key, byte[] response) {
+        invalidateIfStale(store);
+        if(maxEntries > 0) {
+            entries.put(key, response);
+        }
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts as well as the current size
+     * @return
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("size", (long)entries.size());
+        stats.put("maxEntries", (long)maxEntries);
+        return stats;
+    }
+
+    private void invalidateIfStale(TrailStore current) {
+        if(store != current) {
+            entries.clear();
+            store = current;
+        }
+    }
+}
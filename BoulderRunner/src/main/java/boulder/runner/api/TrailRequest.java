@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * The parameters of a /trails request, split into the trail attributes to
+ * filter on and the reserved parameters controlling the response:
+ * <ul>
+ * <li>offset - number of matching trails to skip</li>
+ * <li>limit - maximum number of trails to return</li>
+ * <li>fields - comma separated attributes to return for each trail</li>
+ * <li>format - json (default), ndjson or sse</li>
+ * </ul>
+ *
+ * @author Kniggit
+ */
+public class TrailRequest {
+
+    public static final String OFFSET = "offset";
+    public static final String LIMIT = "limit";
+    public static final String FIELDS = "fields";
+    public static final String FORMAT = "format";
+
+    /** Media type of newline delimited JSON */
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    /** Parameter names that are never treated as trail attributes */
+    public static final Set<String> RESERVED = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList(OFFSET, LIMIT, FIELDS, FORMAT)));
+
+    /**
+     * Formats a response can be written in
+     */
+    public enum Format {
+        /** A single JSON array holding every trail */
+        JSON,
+        /** One JSON object per line */
+        NDJSON,
+        /** One server-sent event per JSON object */
+        SSE
+    }
+
+    private final Map<String, List<String>> filters;
+    private final int offset;
+    private final int limit;
+    private final List<String> fields;
+    private final Format format;
+
+    private TrailRequest(Map<String, List<String>> filters, int offset, int limit, List<String> fields, Format format) {
+        this.filters = filters;
+        this.offset = offset;
+        this.limit = limit;
+        this.fields = fields;
+        this.format = format;
+    }
+
+    /**
+     * Splits the request parameters into filters and response options
+     * @param params
+     * @return
+     * @throws IllegalArgumentException If a response option is not valid
+     */
+    public static TrailRequest of(Map<String, String> params) {
+        return of(params, null);
+    }
+
+    /**
+     * Splits the request parameters into filters and response options
+     * @param params
+     * @param defaultFormat Format used when there is no format parameter, may be null
+     * @return
+     * @throws IllegalArgumentException If a response option is not valid
+     */
+    public static TrailRequest of(Map<String, String> params, Format defaultFormat) {
+        MultiValueMap<String, String> multiParams = new LinkedMultiValueMap<String, String>();
+        multiParams.setAll(params);
+        return of(multiParams, defaultFormat);
+    }
+
+    /**
+     * Splits the request parameters into filters and response options.
+     * Filter parameters may be repeated (see QueryParser), response
+     * options only use their first value.
+     * @param params
+     * @param defaultFormat Format used when there is no format parameter, may be null
+     * @return
+     * @throws IllegalArgumentException If a response option is not valid
+     */
+    public static TrailRequest of(MultiValueMap<String, String> params, Format defaultFormat) {
+        Map<String, List<String>> filters = new LinkedHashMap<String, List<String>>();
+        for(Entry<String, List<String>> entry : params.entrySet()) {
+            if(!RESERVED.contains(entry.getKey())) {
+                filters.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        int offset = parseCount(OFFSET, params.getFirst(OFFSET), 0);
+        int limit = parseCount(LIMIT, params.getFirst(LIMIT), Integer.MAX_VALUE);
+
+        List<String> fields = null;
+        if(params.getFirst(FIELDS) != null) {
+            fields = new ArrayList<String>();
+            for(String field : params.getFirst(FIELDS).split(",")) {
+                // A field asked for twice is only written once
+                if(!field.trim().isEmpty() && !fields.contains(field.trim())) {
+                    fields.add(field.trim());
+                }
+            }
+        }
+
+        Format format = defaultFormat == null ? Format.JSON : defaultFormat;
+        if(params.getFirst(FORMAT) != null) {
+            try {
+                format = Format.valueOf(params.getFirst(FORMAT).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format: " + params.getFirst(FORMAT));
+            }
+        }
+        return new TrailRequest(filters, offset, limit, fields, format);
+    }
+
+    private static int parseCount(String name, String value, int defaultValue) {
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            int count = Integer.parseInt(value.trim());
+            if(count < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    /**
+     * Filter parameters and their values (see QueryParser)
+     * @return
+     */
+    public Map<String, List<String>> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Number of matching trails to skip
+     * @return
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Maximum number of trails to return
+     * @return
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Attributes to return for each trail, or null for all of them
+     * @return
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Format to write the response in
+     * @return
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Content type of the response format
+     * @return
+     */
+    public String getContentType() {
+        switch(format) {
+        case NDJSON:
+            return NDJSON_VALUE;
+        case SSE:
+            return MediaType.TEXT_EVENT_STREAM_VALUE;
+        default:
+            return MediaType.APPLICATION_JSON_UTF8_VALUE;
+        }
+    }
+
+    /**
+     * Returns the streaming format an Accept header asks for, JSON
+     * otherwise
+     * @param accept Accept header, may be null
+     * @return
+     */
+    public static Format getAcceptedFormat(String accept) {
+        if(accept != null && accept.contains(NDJSON_VALUE)) {
+            return Format.NDJSON;
+        }
+        if(accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE)) {
+            return Format.SSE;
+        }
+        return Format.JSON;
+    }
+
+    /**
+     * Checks whether every matching trail is returned in full as a JSON
+     * array, which is the response that is cached
+     * @return
+     */
+    public boolean isComplete() {
+        return offset == 0 && limit == Integer.MAX_VALUE && fields == null && format == Format.JSON;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.PrimitiveIterator;
+
+/**
+ * The answer of the TrailService to one request, independent of the web
+ * stack it is sent on. The body is either complete, i.e. a cached /trails
+ * response or facet counts, or streamed: trails written one at a time from
+ * their rows by a TrailWriter.
+ *
+ * The query is recorded once the body was written, or the client went
+ * away, by calling complete().
+ *
+ * @author Kniggit
+ */
+public final class TrailResponse {
+
+    private final String contentType;
+    private final byte[] body;
+    private final TrailWriter writer;
+    private final PrimitiveIterator.OfInt rows;
+    private final Runnable completion;
+
+    private TrailResponse(String contentType, byte[] body, TrailWriter writer, PrimitiveIterator.OfInt rows,
+            Runnable completion) {
+        this.contentType = contentType;
+        this.body = body;
+        this.writer = writer;
+        this.rows = rows;
+        this.completion = completion;
+    }
+
+    /**
+     * @param contentType
+     * @param body Complete body
+     * @param completion Run once the body was written
+     * @return
+     */
+    static TrailResponse of(String contentType, byte[] body, Runnable completion) {
+        return new TrailResponse(contentType, body, null, null, completion);
+    }
+
+    /**
+     * @param contentType
+     * @param writer Writer of the trails
+     * @param rows Rows of the trails to write, in order
+     * @param completion Run once the trails were written
+     * @return
+     */
+    static TrailResponse of(String contentType, TrailWriter writer, PrimitiveIterator.OfInt rows,
+            Runnable completion) {
+        return new TrailResponse(contentType, null, writer, rows, completion);
+    }
+
+    /**
+     * Content type of the body
+     * @return
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Checks whether the trails are streamed from getRows() rather than
+     * held in getBody()
+     * @return
+     */
+    public boolean isStreamed() {
+        return body == null;
+    }
+
+    /**
+     * Complete body, or null if the trails are streamed
+     * NOTE: The array may be shared with the response cache, callers must
+     * not modify it.
+     * @return
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Writer of the streamed trails, or null if the body is complete
+     * @return
+     */
+    public TrailWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Rows of the streamed trails, or null if the body is complete
+     * @return
+     */
+    public PrimitiveIterator.OfInt getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes the whole body to the output stream and completes the
+     * response
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        try {
+            if(body != null) {
+                out.write(body);
+            } else {
+                writer.writeStart(out);
+                for(int written = 0; rows.hasNext(); written++) {
+                    writer.writeElement(written, rows.nextInt(), out);
+                }
+                writer.writeEnd(out);
+            }
+        } finally {
+            complete();
+        }
+    }
+
+    /**
+     * Records the query. Called once the body was written, or could not
+     * be written.
+     */
+    public void complete() {
+        completion.run();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.batch.BatchRequest;
+import boulder.runner.api.batch.TrailBatch;
+import boulder.runner.api.facet.FacetCounts;
+import boulder.runner.api.facet.FacetRequest;
+import boulder.runner.api.metrics.QueryTimer;
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.query.QueryEngine;
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.search.TrailSearcher;
+import boulder.runner.api.similar.SimilarRequest;
+import boulder.runner.api.similar.TrailRecommender;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Answers the trail endpoints independently of the web stack. The
+ * BoulderRunnerController on the servlet stack and the TrailHandler on
+ * the reactive stack only turn their request into parameters and the
+ * returned TrailResponse into their response, so both serve the same
+ * responses.
+ *
+ * Invalid parameters are rejected with an IllegalArgumentException and
+ * unknown trails with a NoSuchElementException. The parse, filter and
+ * serialize times of every request are recorded (see {@link TrailMetrics}).
+ *
+ * @author Kniggit
+ */
+public class TrailService {
+
+    /** Parameter holding the text to search for */
+    public static final String QUERY = "q";
+
+    private static final String DEFAULT_SEARCH_LIMIT = "10";
+
+    private final ResponseCache responseCache;
+    private final QueryEngine queryEngine;
+    private final TrailSearcher searcher;
+    private final TrailRecommender recommender;
+    private final TrailMetrics metrics;
+
+    /**
+     * @param repository Repository holding the trails being served
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     * @param metrics Metrics the queries are recorded to
+     */
+    public TrailService(TrailRepository repository, int cacheSize, TrailMetrics metrics) {
+        this.responseCache = new ResponseCache(cacheSize);
+        this.queryEngine = new QueryEngine(cacheSize);
+        this.searcher = new TrailSearcher();
+        this.recommender = new TrailRecommender();
+        this.metrics = metrics;
+        // Build the search and similarity indexes of new trails while they are being loaded
+        repository.addPublishListener(searcher::getIndex);
+        repository.addPublishListener(recommender::getIndex);
+    }
+
+    /**
+     * Returns all trails of the store matching the search parameters.
+     * Complete responses are cached per normalized set of search
+     * parameters until the trail data changes, pages, projections and
+     * streams are written trail by trail.
+     * @param store
+     * @param params
+     * @param accept Accept header of the request, may be null
+     * @return
+     */
+    public TrailResponse trails(TrailStore store, MultiValueMap<String, String> params, String accept) {
+        QueryTimer timer = metrics.start(TrailMetrics.TRAILS);
+        TrailRequest request = TrailRequest.of(params, TrailRequest.getAcceptedFormat(accept));
+        Map<String, List<String>> filters = request.getFilters();
+        String key = QueryParser.normalize(filters);
+        timer.parsed();
+        if(request.isComplete()) {
+            byte[] response = responseCache.get(store, key);
+            if(response == null) {
+                // Not cached yet, assemble the response from the pre-encoded trails
+                BitSet matches = queryEngine.find(store, key, filters);
+                timer.filtered(matches.cardinality());
+                response = store.encode(matches);
+                responseCache.put(store, key, response);
+            } else {
+                timer.filtered(-1);
+            }
+            return TrailResponse.of(request.getContentType(), response, record(store, timer, filters));
+        }
+
+        BitSet matches = queryEngine.find(store, key, filters);
+        timer.filtered(matches.cardinality());
+        PrimitiveIterator.OfInt rows = matches.stream().skip(request.getOffset()).limit(request.getLimit())
+                .iterator();
+        return TrailResponse.of(request.getContentType(), new TrailWriter(store, request.getFields(),
+                request.getFormat()), rows, record(store, timer, filters));
+    }
+
+    /**
+     * Returns the trails best matching the text in q, narrowed by the
+     * other search parameters
+     * @param store
+     * @param params
+     * @param accept Accept header of the request, may be null
+     * @return
+     */
+    public TrailResponse search(TrailStore store, MultiValueMap<String, String> params, String accept) {
+        QueryTimer timer = metrics.start(TrailMetrics.SEARCH);
+        MultiValueMap<String, String> searchParams = new LinkedMultiValueMap<String, String>(params);
+        List<String> query = searchParams.remove(QUERY);
+        if(query == null || query.get(0).trim().isEmpty()) {
+            throw new IllegalArgumentException(QUERY + " is required");
+        }
+        searchParams.putIfAbsent(TrailRequest.LIMIT, Collections.singletonList(DEFAULT_SEARCH_LIMIT));
+        TrailRequest request = TrailRequest.of(searchParams, TrailRequest.getAcceptedFormat(accept));
+        timer.setText(query.get(0));
+
+        // Only filter when there is something to filter on
+        Map<String, List<String>> filters = request.getFilters();
+        String key = QueryParser.normalize(filters);
+        timer.parsed();
+        BitSet allowed = filters.isEmpty() ? null : queryEngine.find(store, key, filters);
+        int[] rows = searcher.search(store, query.get(0), allowed, request.getOffset(), request.getLimit());
+        timer.filtered(rows.length);
+        return TrailResponse.of(request.getContentType(), new TrailWriter(store, request.getFields(),
+                request.getFormat()), Arrays.stream(rows).iterator(), record(store, timer, filters));
+    }
+
+    /**
+     * Returns the facet counts and sums of the trails matching the search
+     * parameters. The counts are cached like complete /trails responses.
+     * @param store
+     * @param params
+     * @return
+     */
+    public TrailResponse facets(TrailStore store, MultiValueMap<String, String> params) {
+        QueryTimer timer = metrics.start(TrailMetrics.FACETS);
+        FacetRequest request = FacetRequest.of(params);
+        Map<String, List<String>> filters = request.getFilters();
+        String key = request.getKey();
+        timer.parsed();
+        byte[] counts = responseCache.get(store, key);
+        if(counts == null) {
+            // Without filters the counts come from the column statistics
+            BitSet matches = filters.isEmpty() ? null : queryEngine.find(store, filters);
+            FacetCounts facetCounts = FacetCounts.of(store, matches, request.getFacets(), request.getSums());
+            timer.filtered(facetCounts.getCount());
+            counts = facetCounts.toJSONObject().toString().getBytes(StandardCharsets.UTF_8);
+            responseCache.put(store, key, counts);
+        } else {
+            timer.filtered(-1);
+        }
+        return TrailResponse.of(MediaType.APPLICATION_JSON_UTF8_VALUE, counts, record(store, timer, filters));
+    }
+
+    /**
+     * Answers the queries in the body at once
+     * @param store
+     * @param body JSON array of parameter objects (see {@link BatchRequest})
+     * @param fields Comma separated attributes to return for each trail, may be null
+     * @return
+     */
+    public TrailResponse batch(TrailStore store, String body, String fields) {
+        QueryTimer timer = metrics.start(TrailMetrics.BATCH);
+        BatchRequest request = BatchRequest.of(body, fields);
+        timer.parsed();
+        TrailBatch batch = TrailBatch.evaluate(queryEngine, store, request.getQueries());
+        timer.filtered(batch.getMatches());
+
+        // The trails of a batch are limited, it is written as a whole
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            batch.write(request.getFields(), out);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        List<Map<String, List<String>>> queries = request.getQueries().stream()
+                .map(TrailRequest::getFilters)
+                .collect(Collectors.toList());
+        return TrailResponse.of(MediaType.APPLICATION_JSON_UTF8_VALUE, out.toByteArray(), () -> {
+            timer.serialized();
+            metrics.record(store, timer, queries);
+        });
+    }
+
+    /**
+     * Returns the trails most similar to the trail with the AccessID
+     * @param store
+     * @param accessId
+     * @param params
+     * @param accept Accept header of the request, may be null
+     * @return
+     */
+    public TrailResponse similar(TrailStore store, String accessId, MultiValueMap<String, String> params,
+            String accept) {
+        QueryTimer timer = metrics.start(TrailMetrics.SIMILAR);
+        SimilarRequest request = SimilarRequest.of(params, TrailRequest.getAcceptedFormat(accept));
+        timer.parsed();
+        return similar(request, store, recommender.similar(store, accessId, request.getK()), timer);
+    }
+
+    /**
+     * Returns the trails most similar to the liked trails
+     * @param store
+     * @param params
+     * @param accept Accept header of the request, may be null
+     * @return
+     */
+    public TrailResponse similarToLiked(TrailStore store, MultiValueMap<String, String> params, String accept) {
+        QueryTimer timer = metrics.start(TrailMetrics.SIMILAR);
+        SimilarRequest request = SimilarRequest.of(params, TrailRequest.getAcceptedFormat(accept));
+        if(request.getLiked().isEmpty()) {
+            throw new IllegalArgumentException(SimilarRequest.LIKED + " is required");
+        }
+        timer.parsed();
+        return similar(request, store, recommender.similar(store, request.getLiked(), request.getK()), timer);
+    }
+
+    private TrailResponse similar(SimilarRequest request, TrailStore store, int[] rows, QueryTimer timer) {
+        timer.filtered(rows.length);
+        return TrailResponse.of(request.getContentType(), new TrailWriter(store, request.getFields(),
+                request.getFormat()), Arrays.stream(rows).iterator(), record(store, timer,
+                        Collections.emptyMap()));
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the response cache as
+     * a JSON object
+     * @return
+     */
+    public String getCacheStats() {
+        return new JSONObject(responseCache.getStats()).toString();
+    }
+
+    /**
+     * Records the query once its response was written
+     */
+    private Runnable record(TrailStore store, QueryTimer timer, Map<String, List<String>> filters) {
+        return () -> {
+            timer.serialized();
+            metrics.record(store, timer, filters);
+        };
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import boulder.runner.api.TrailRequest.Format;
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Writes matching trails to an output stream one trail at a time, so a
+ * response never has to be held in memory as a whole.
+ *
+ * Full trails are copied from their pre-encoded JSON. When only some
+ * fields are requested the trail is assembled from the pre-encoded
+ * dictionary values of those columns.
+ *
+ * @author Kniggit
+ */
+public class TrailWriter {
+
+    private static final byte[] NEW_LINE = { '\n' };
+    private static final byte[] COMMA = { ',' };
+    private static final byte[] SSE_DATA = "data:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SSE_END = { '\n', '\n' };
+
+    private final TrailStore store;
+    private final Format format;
+    private final TrailColumn[] columns;
+    private final byte[][] encodedNames;
+
+    /**
+     * @param store Store the trails are read from
+     * @param fields Attributes to write for every trail, null for all of them
+     * @param format
+     */
+    public TrailWriter(TrailStore store, List<String> fields, Format format) {
+        this.store = store;
+        this.format = format;
+        if(fields == null) {
+            this.columns = null;
+            this.encodedNames = null;
+        } else {
+            this.columns = new TrailColumn[fields.size()];
+            this.encodedNames = new byte[fields.size()][];
+            for(int i = 0; i < fields.size(); i++) {
+                columns[i] = store.getColumn(fields.get(i));
+                encodedNames[i] = (JSONObject.quote(fields.get(i)) + ":").getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Writes what goes before the first trail, i.e. the opening bracket
+     * of a JSON array
+     * @param out
+     * @throws IOException
+     */
+    public void writeStart(OutputStream out) throws IOException {
+        if(format == Format.JSON) {
+            out.write('[');
+        }
+    }
+
+    /**
+     * Writes a trail along with the separators the format needs around it
+     * @param index Number of trails written before this one
+     * @param row
+     * @param out
+     * @throws IOException
+     */
+    public void writeElement(int index, int row, OutputStream out) throws IOException {
+        if(format == Format.JSON && index > 0) {
+            out.write(COMMA);
+        } else if(format == Format.SSE) {
+            out.write(SSE_DATA);
+        }
+        writeTrail(row, out);
+        if(format == Format.NDJSON) {
+            out.write(NEW_LINE);
+        } else if(format == Format.SSE) {
+            out.write(SSE_END);
+        }
+    }
+
+    /**
+     * Writes what goes after the last trail, i.e. the closing bracket of
+     * a JSON array
+     * @param out
+     * @throws IOException
+     */
+    public void writeEnd(OutputStream out) throws IOException {
+        if(format == Format.JSON) {
+            out.write(']');
+        }
+    }
+
+    /**
+     * Writes a single trail
+     * @param row
+     * @param out
+     * @throws IOException
+     */
+    public void writeTrail(int row, OutputStream out) throws IOException {
+        if(columns == null) {
+            store.writeTrail(row, out);
+            return;
+        }
+
+        out.write('{');
+        boolean first = true;
+        for(int i = 0; i < columns.length; i++) {
+            int code = columns[i] == null ? TrailColumn.MISSING : columns[i].getCode(row);
+            if(code == TrailColumn.MISSING) {
+                continue;
+            }
+            if(!first) {
+                out.write(COMMA);
+            }
+            out.write(encodedNames[i]);
+            out.write(columns[i].getEncodedValue(code));
+            first = false;
+        }
+        out.write('}');
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.TrailRequest;
+
+/**
+ * The body of a POST /trails/batch request: a JSON array with one object
+ * of parameters per query, i.e.
+ * [{"Fee":"Yes","Class":["T1","T3"]},{"ParkSpaces&gt;=":20,"limit":5}].
+ * Every object holds the same parameters as a /trails query string. A
+ * key ending with an operator is followed by its value as written, so
+ * {"ParkSpaces&gt;=":20} is ParkSpaces&gt;=20, {"ParkSpaces&gt;":20} is
+ * ParkSpaces&gt;20 and {"Fee!=":"Yes"} is Fee!=Yes. Repeated parameters
+ * are arrays. offset and limit page the trails of a single query. fields
+ * applies to the whole batch and is passed as a query parameter.
+ *
+ * @author Kniggit
+ */
+public class BatchRequest {
+
+    /** Maximum number of queries in a batch */
+    public static final int MAX_QUERIES = 1000;
+
+    // Characters of the operators of a clause, see QueryParser
+    private static final String OPERATOR_CHARS = "=!<>~";
+
+    private final List<TrailRequest> queries;
+    private final List<String> fields;
+
+    private BatchRequest(List<TrailRequest> queries, List<String> fields) {
+        this.queries = queries;
+        this.fields = fields;
+    }
+
+    /**
+     * Parses the queries of the body
+     * @param body JSON array of parameter objects
+     * @param fields Comma separated attributes to return for each trail, may be null
+     * @return
+     * @throws IllegalArgumentException If the body is not a valid batch
+     */
+    public static BatchRequest of(String body, String fields) {
+        JSONArray array;
+        try {
+            array = new JSONArray(body == null ? "" : body);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("The body must be a JSON array of queries");
+        }
+        if(array.length() > MAX_QUERIES) {
+            throw new IllegalArgumentException("A batch holds at most " + MAX_QUERIES + " queries");
+        }
+
+        List<TrailRequest> queries = new ArrayList<TrailRequest>(array.length());
+        for(int i = 0; i < array.length(); i++) {
+            JSONObject query = array.optJSONObject(i);
+            if(query == null) {
+                throw new IllegalArgumentException("Query " + i + " is not a JSON object");
+            }
+            MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+            for(String name : query.keySet()) {
+                if(TrailRequest.FIELDS.equals(name) || TrailRequest.FORMAT.equals(name)) {
+                    throw new IllegalArgumentException(name + " applies to the whole batch, not to query " + i);
+                }
+                Object value = query.get(name);
+                if(value instanceof JSONArray) {
+                    for(Object element : (JSONArray)value) {
+                        add(params, name, element.toString());
+                    }
+                } else {
+                    add(params, name, value.toString());
+                }
+            }
+            queries.add(TrailRequest.of(params, TrailRequest.Format.JSON));
+        }
+
+        MultiValueMap<String, String> options = new LinkedMultiValueMap<String, String>();
+        if(fields != null) {
+            options.add(TrailRequest.FIELDS, fields);
+        }
+        return new BatchRequest(queries, TrailRequest.of(options, TrailRequest.Format.JSON).getFields());
+    }
+
+    /**
+     * Adds a parameter of a query. When the name ends with an operator the
+     * clause is the name followed by the value, and it is added the way a
+     * query string holding it is split: the name up to the first = and the
+     * value after it, i.e. ParkSpaces&gt; and 20 for ParkSpaces&gt;=20, or
+     * ParkSpaces&gt;20 and no value.
+     * @param params
+     * @param name
+     * @param value
+     */
+    private static void add(MultiValueMap<String, String> params, String name, String value) {
+        if(name.length() < 2 || OPERATOR_CHARS.indexOf(name.charAt(name.length() - 1)) < 0) {
+            params.add(name, value);
+            return;
+        }
+        String clause = name + value;
+        int equals = clause.indexOf('=');
+        if(equals < 0) {
+            params.add(clause, "");
+        } else {
+            params.add(clause.substring(0, equals), clause.substring(equals + 1));
+        }
+    }
+
+    /**
+     * Filters, offset and limit of every query, in request order
+     * @return
+     */
+    public List<TrailRequest> getQueries() {
+        return queries;
+    }
+
+    /**
+     * Attributes to return for each trail, or null for all of them
+     * @return
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+}
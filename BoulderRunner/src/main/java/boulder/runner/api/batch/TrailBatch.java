@@ -0,0 +1,286 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.batch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import boulder.runner.api.TrailRequest;
+import boulder.runner.api.TrailWriter;
+import boulder.runner.api.query.QueryEngine;
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * The results of a batch of queries against one TrailStore.
+ *
+ * Every query is a conjunction of its parameters, so each distinct
+ * parameter of the whole batch (i.e. Fee=Yes) is evaluated only once and
+ * its rows are shared by all queries holding it. A query then only
+ * intersects the shared rows of its parameters, smallest first. Batches
+ * of more than SEQUENTIAL_THRESHOLD parameters or queries are split
+ * across the cores with fork/join.
+ *
+ * The response holds every returned trail once, however many queries
+ * returned it, and every query refers to its trails by their index:
+ * {"trails":[{...},{...}],"results":[{"count":2,"trails":[0,1]},{"count":1,"trails":[1]}]}.
+ * count is the number of matching trails before offset and limit.
+ *
+ * @author Kniggit
+ */
+public final class TrailBatch {
+
+    /** Number of parameters or queries evaluated by a single fork/join task */
+    static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private static final byte[] TRAILS_START = "{\"trails\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESULTS_START = "],\"results\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] COUNT = "{\"count\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESULT_TRAILS = ",\"trails\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESULT_END = "]}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final TrailStore store;
+    private final int[] counts;
+    private final int[][] rows;
+    private final int distinctFilters;
+
+    private TrailBatch(TrailStore store, int[] counts, int[][] rows, int distinctFilters) {
+        this.store = store;
+        this.counts = counts;
+        this.rows = rows;
+        this.distinctFilters = distinctFilters;
+    }
+
+    /**
+     * Evaluates every query of the batch
+     * @param engine Engine compiling the parameters, its plan cache is shared with /trails
+     * @param store
+     * @param queries
+     * @return
+     * @throws IllegalArgumentException If a parameter is not a valid clause
+     */
+    public static TrailBatch evaluate(QueryEngine engine, TrailStore store, List<TrailRequest> queries) {
+        // Resolve the parameters of every query to the distinct
+        // parameters of the batch
+        Map<String, Map<String, List<String>>> filters = new LinkedHashMap<String, Map<String, List<String>>>();
+        Map<String, Integer> filterIndexes = new LinkedHashMap<String, Integer>();
+        int[][] queryFilters = new int[queries.size()][];
+        for(int q = 0; q < queries.size(); q++) {
+            Map<String, List<String>> params = queries.get(q).getFilters();
+            queryFilters[q] = new int[params.size()];
+            int f = 0;
+            for(Entry<String, List<String>> param : params.entrySet()) {
+                Map<String, List<String>> filter = Collections.singletonMap(param.getKey(), param.getValue());
+                String key = QueryParser.normalize(filter);
+                Integer index = filterIndexes.get(key);
+                if(index == null) {
+                    index = filterIndexes.size();
+                    filterIndexes.put(key, index);
+                    filters.put(key, filter);
+                }
+                queryFilters[q][f++] = index;
+            }
+        }
+
+        // Evaluate every distinct parameter once
+        List<String> keys = new ArrayList<String>(filters.keySet());
+        BitSet[] filterRows = new BitSet[keys.size()];
+        int[] filterCounts = new int[keys.size()];
+        forEach(keys.size(), f -> {
+            filterRows[f] = engine.find(store, keys.get(f), filters.get(keys.get(f)));
+            filterCounts[f] = filterRows[f].cardinality();
+        });
+
+        // Intersect the shared rows of the parameters of every query
+        int[] counts = new int[queries.size()];
+        int[][] rows = new int[queries.size()][];
+        forEach(queries.size(), q -> {
+            Integer[] order = Arrays.stream(queryFilters[q]).boxed().toArray(Integer[]::new);
+            Arrays.sort(order, Comparator.comparingInt(f -> filterCounts[f]));
+            BitSet matches;
+            if(order.length == 0) {
+                // NOTE: A query without parameters returns ALL trails
+                matches = new BitSet(store.size());
+                matches.set(0, store.size());
+            } else {
+                matches = (BitSet)filterRows[order[0]].clone();
+                for(int i = 1; i < order.length && !matches.isEmpty(); i++) {
+                    matches.and(filterRows[order[i]]);
+                }
+            }
+            TrailRequest query = queries.get(q);
+            counts[q] = matches.cardinality();
+            rows[q] = matches.stream().skip(query.getOffset()).limit(query.getLimit()).toArray();
+        });
+        return new TrailBatch(store, counts, rows, keys.size());
+    }
+
+    /**
+     * Runs the task for every index from 0 to size, forking when there
+     * are more than SEQUENTIAL_THRESHOLD of them
+     */
+    private static void forEach(int size, IntConsumer task) {
+        if(size <= SEQUENTIAL_THRESHOLD) {
+            for(int i = 0; i < size; i++) {
+                task.accept(i);
+            }
+        } else {
+            ForkJoinPool.commonPool().invoke(new ForEach(task, 0, size));
+        }
+    }
+
+    /**
+     * Number of queries in the batch
+     * @return
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * Number of trails matching the query, before offset and limit
+     * @param query
+     * @return
+     */
+    public int getCount(int query) {
+        return counts[query];
+    }
+
+    /**
+     * Rows of the trails returned for the query
+     * @param query
+     * @return
+     */
+    public int[] getRows(int query) {
+        return rows[query];
+    }
+
+    /**
+     * Number of distinct parameters evaluated for the whole batch
+     * @return
+     */
+    public int getDistinctFilters() {
+        return distinctFilters;
+    }
+
+    /**
+     * Total number of trails matching the queries
+     * @return
+     */
+    public int getMatches() {
+        int matches = 0;
+        for(int count : counts) {
+            matches += count;
+        }
+        return matches;
+    }
+
+    /**
+     * Writes the returned trails, each once, and the results of every
+     * query referring to them
+     * @param fields Attributes to write for each trail, or null for all of them
+     * @param out
+     * @throws IOException
+     */
+    public void write(List<String> fields, OutputStream out) throws IOException {
+        BitSet returned = new BitSet(store.size());
+        for(int[] queryRows : rows) {
+            for(int row : queryRows) {
+                returned.set(row);
+            }
+        }
+
+        // Trails are written in row order, a trail's index is its rank
+        TrailWriter writer = new TrailWriter(store, fields, TrailRequest.Format.JSON);
+        int[] indexes = new int[returned.length()];
+        int index = 0;
+        out.write(TRAILS_START);
+        for(int row = returned.nextSetBit(0); row >= 0; row = returned.nextSetBit(row + 1)) {
+            if(index > 0) {
+                out.write(',');
+            }
+            writer.writeTrail(row, out);
+            indexes[row] = index++;
+        }
+
+        out.write(RESULTS_START);
+        for(int q = 0; q < rows.length; q++) {
+            if(q > 0) {
+                out.write(',');
+            }
+            out.write(COUNT);
+            writeNumber(counts[q], out);
+            out.write(RESULT_TRAILS);
+            for(int i = 0; i < rows[q].length; i++) {
+                if(i > 0) {
+                    out.write(',');
+                }
+                writeNumber(indexes[rows[q][i]], out);
+            }
+            out.write(RESULT_END);
+        }
+        out.write(END);
+    }
+
+    private static void writeNumber(int number, OutputStream out) throws IOException {
+        out.write(Integer.toString(number).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Fork/join task running a task for a range of indexes, halving the
+     * range until it is small enough to run on one core
+     */
+    private static class ForEach extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient IntConsumer task;
+        private final int from;
+        private final int to;
+
+        ForEach(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= SEQUENTIAL_THRESHOLD) {
+                for(int i = from; i < to; i++) {
+                    task.accept(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ForEach(task, from, middle), new ForEach(task, middle, to));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.facet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Value counts of attributes (facets) and sums of numeric attributes over
+ * a set of trails, computed straight from the dictionary codes of the
+ * columns without touching the encoded trails.
+ *
+ * For all trails the counts are the lengths of the posting lists, which
+ * are known from the load, and overall sums are a single pass over the
+ * dictionary. Only sums per facet value and filtered trails need a pass
+ * over the trail rows.
+ *
+ * @author Kniggit
+ */
+public final class FacetCounts {
+
+    private final int count;
+    private final List<String> facets;
+    private final List<TrailColumn> facetColumns;
+    private final List<String> sums;
+    private final long[][] facetCounts;
+    private final Stats[] totals;
+    private final Stats[][][] facetTotals;
+
+    private FacetCounts(int count, List<String> facets, List<TrailColumn> facetColumns, List<String> sums,
+            long[][] facetCounts, Stats[] totals, Stats[][][] facetTotals) {
+        this.count = count;
+        this.facets = facets;
+        this.facetColumns = facetColumns;
+        this.sums = sums;
+        this.facetCounts = facetCounts;
+        this.totals = totals;
+        this.facetTotals = facetTotals;
+    }
+
+    /**
+     * Counts the facet values and sums the numeric attributes of the
+     * matching trails
+     * @param store
+     * @param matches Rows of the trails to count, null for all trails
+     * @param facets Attributes to count the values of
+     * @param sums Numeric attributes to sum
+     * @return
+     */
+    public static FacetCounts of(TrailStore store, BitSet matches, List<String> facets, List<String> sums) {
+        List<TrailColumn> facetColumns = new ArrayList<TrailColumn>(facets.size());
+        long[][] facetCounts = new long[facets.size()][];
+        for(int f = 0; f < facets.size(); f++) {
+            TrailColumn column = store.getColumn(facets.get(f));
+            facetColumns.add(column);
+            facetCounts[f] = new long[column == null ? 0 : column.getCardinality()];
+        }
+        TrailColumn[] sumColumns = new TrailColumn[sums.size()];
+        Stats[] totals = new Stats[sums.size()];
+        for(int s = 0; s < sums.size(); s++) {
+            sumColumns[s] = store.getColumn(sums.get(s));
+            totals[s] = new Stats();
+        }
+        Stats[][][] facetTotals = new Stats[facets.size()][][];
+        for(int f = 0; f < facets.size(); f++) {
+            facetTotals[f] = new Stats[facetCounts[f].length][sums.size()];
+            for(Stats[] codeTotals : facetTotals[f]) {
+                for(int s = 0; s < codeTotals.length; s++) {
+                    codeTotals[s] = new Stats();
+                }
+            }
+        }
+
+        if(matches == null && (sums.isEmpty() || facets.isEmpty())) {
+            // All trails and nothing per facet value, the posting lists
+            // already know how many trails hold every value
+            for(int f = 0; f < facets.size(); f++) {
+                for(int code = 0; code < facetCounts[f].length; code++) {
+                    facetCounts[f][code] = facetColumns.get(f).getCount(code);
+                }
+            }
+            for(int s = 0; s < sumColumns.length; s++) {
+                for(int code = 0; sumColumns[s] != null && code < sumColumns[s].getCardinality(); code++) {
+                    totals[s].add(sumColumns[s].getNumber(code), sumColumns[s].getCount(code));
+                }
+            }
+            return new FacetCounts(store.size(), facets, facetColumns, sums, facetCounts, totals, facetTotals);
+        }
+
+        // One pass over the matching rows, reading only the codes of the
+        // requested columns
+        int count = 0;
+        int row = matches == null ? (store.size() > 0 ? 0 : -1) : matches.nextSetBit(0);
+        double[] values = new double[sums.size()];
+        while(row >= 0) {
+            count++;
+            for(int s = 0; s < sumColumns.length; s++) {
+                int code = sumColumns[s] == null ? TrailColumn.MISSING : sumColumns[s].getCode(row);
+                values[s] = code == TrailColumn.MISSING ? Double.NaN : sumColumns[s].getNumber(code);
+                totals[s].add(values[s]);
+            }
+            for(int f = 0; f < facets.size(); f++) {
+                TrailColumn column = facetColumns.get(f);
+                int code = column == null ? TrailColumn.MISSING : column.getCode(row);
+                if(code == TrailColumn.MISSING) {
+                    continue;
+                }
+                facetCounts[f][code]++;
+                for(int s = 0; s < values.length; s++) {
+                    facetTotals[f][code][s].add(values[s]);
+                }
+            }
+            if(matches == null) {
+                row = row + 1 < store.size() ? row + 1 : -1;
+            } else {
+                row = matches.nextSetBit(row + 1);
+            }
+        }
+        return new FacetCounts(count, facets, facetColumns, sums, facetCounts, totals, facetTotals);
+    }
+
+    /**
+     * Number of trails counted
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of counted trails holding the value of the facet,
+     * 0 if the facet was not counted
+     * @param facet
+     * @param value
+     * @return
+     */
+    public long getCount(String facet, String value) {
+        int f = facets.indexOf(facet);
+        int code = f < 0 || facetColumns.get(f) == null ? TrailColumn.MISSING : facetColumns.get(f).getCode(value);
+        return code == TrailColumn.MISSING ? 0 : facetCounts[f][code];
+    }
+
+    /**
+     * Builds the response, i.e.
+     * {"count":4,"sums":{"ParkSpaces":{"count":4,"sum":109,"min":6,"max":56}},
+     * "facets":{"Fee":[{"value":"No","count":2,"sums":{...}},...]}}.
+     * Facet values are ordered by count, most common first, and values no
+     * counted trail holds are left out.
+     * @return
+     */
+    public JSONObject toJSONObject() {
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+        JSONObject sumsJson = new JSONObject();
+        for(int s = 0; s < sums.size(); s++) {
+            sumsJson.put(sums.get(s), totals[s].toJSONObject());
+        }
+        json.put("sums", sumsJson);
+
+        JSONObject facetsJson = new JSONObject();
+        for(int f = 0; f < facets.size(); f++) {
+            List<Integer> codes = new ArrayList<Integer>();
+            for(int code = 0; code < facetCounts[f].length; code++) {
+                if(facetCounts[f][code] > 0) {
+                    codes.add(code);
+                }
+            }
+            long[] counts = facetCounts[f];
+            TrailColumn column = facetColumns.get(f);
+            codes.sort((a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a])
+                    : column.getValue(a).compareTo(column.getValue(b)));
+
+            JSONArray values = new JSONArray();
+            for(int code : codes) {
+                JSONObject value = new JSONObject();
+                value.put("value", column.getValue(code));
+                value.put("count", counts[code]);
+                if(!sums.isEmpty()) {
+                    JSONObject valueSums = new JSONObject();
+                    for(int s = 0; s < sums.size(); s++) {
+                        valueSums.put(sums.get(s), facetTotals[f][code][s].toJSONObject());
+                    }
+                    value.put("sums", valueSums);
+                }
+                values.put(value);
+            }
+            facetsJson.put(facets.get(f), values);
+        }
+        json.put("facets", facetsJson);
+        return json;
+    }
+
+    /**
+     * Count, sum, min and max of the numeric values of an attribute.
+     * Values that are not numbers are skipped.
+     */
+    private static class Stats {
+
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value) {
+            add(value, 1);
+        }
+
+        void add(double value, int times) {
+            if(Double.isNaN(value) || times == 0) {
+                return;
+            }
+            count += times;
+            sum += value * times;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        JSONObject toJSONObject() {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("sum", sum);
+            if(count > 0) {
+                json.put("min", min);
+                json.put("max", max);
+            }
+            return json;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.facet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.TrailRequest;
+import boulder.runner.api.query.QueryParser;
+
+/**
+ * The parameters of a /trails/facets request:
+ * <ul>
+ * <li>facet - comma separated attributes to count the values of</li>
+ * <li>sum - comma separated numeric attributes to sum, overall and per facet value</li>
+ * </ul>
+ * Every other parameter filters the trails the same way it does for
+ * /trails. The paging and format parameters of /trails are ignored.
+ *
+ * @author Kniggit
+ */
+public class FacetRequest {
+
+    public static final String FACET = "facet";
+    public static final String SUM = "sum";
+
+    private final List<String> facets;
+    private final List<String> sums;
+    private final Map<String, List<String>> filters;
+
+    private FacetRequest(List<String> facets, List<String> sums, Map<String, List<String>> filters) {
+        this.facets = facets;
+        this.sums = sums;
+        this.filters = filters;
+    }
+
+    /**
+     * Splits the request parameters into facets, sums and filters
+     * @param params
+     * @return
+     */
+    public static FacetRequest of(MultiValueMap<String, String> params) {
+        Map<String, List<String>> filters = new LinkedHashMap<String, List<String>>();
+        for(Entry<String, List<String>> entry : params.entrySet()) {
+            if(!FACET.equals(entry.getKey()) && !SUM.equals(entry.getKey())
+                    && !TrailRequest.RESERVED.contains(entry.getKey())) {
+                filters.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new FacetRequest(split(params.get(FACET)), split(params.get(SUM)), filters);
+    }
+
+    private static List<String> split(List<String> values) {
+        List<String> attributes = new ArrayList<String>();
+        for(int i = 0; values != null && i < values.size(); i++) {
+            for(String attribute : values.get(i).split(",")) {
+                if(!attribute.trim().isEmpty() && !attributes.contains(attribute.trim())) {
+                    attributes.add(attribute.trim());
+                }
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Attributes to count the values of
+     * @return
+     */
+    public List<String> getFacets() {
+        return facets;
+    }
+
+    /**
+     * Numeric attributes to sum
+     * @return
+     */
+    public List<String> getSums() {
+        return sums;
+    }
+
+    /**
+     * Filter parameters and their values (see QueryParser)
+     * @return
+     */
+    public Map<String, List<String>> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Key of the response in the ResponseCache, which can not be mistaken
+     * for the key of a /trails response
+     * @return
+     */
+    public String getKey() {
+        return "facets:" + String.join(",", facets) + ":" + String.join(",", sums) + ":"
+                + QueryParser.normalize(filters);
+    }
+}
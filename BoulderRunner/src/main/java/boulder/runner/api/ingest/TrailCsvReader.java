@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.ingest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import boulder.runner.api.store.TrailStore;
+import boulder.runner.api.store.TrailStoreBuilder;
+
+/**
+ * Reads the City of Boulder trail head CSV dump
+ *
+ * The CSV is streamed once, record by record, straight into a
+ * TrailStoreBuilder. The header is resolved to column indexes up front, so
+ * no per record maps or JSONObjects are created.
+ *
+ * @author Kniggit
+ */
+public final class TrailCsvReader {
+
+    private TrailCsvReader() {
+    }
+
+    /**
+     * Reads every record of the CSV into a TrailStore whose attributes are
+     * named after the CSV header
+     * @param reader
+     * @return
+     * @throws IOException
+     */
+    public static TrailStore read(Reader reader) throws IOException {
+        CSVFormat format = CSVFormat.RFC4180.withHeader().withDelimiter(',');
+        TrailStoreBuilder builder = new TrailStoreBuilder();
+        try(CSVParser parser = new CSVParser(reader, format)) {
+            // Resolve the header once, every record is then read by index
+            Map<String, Integer> headerMap = parser.getHeaderMap();
+            String[] attributes = new String[headerMap.size()];
+            for(Entry<String, Integer> entry : headerMap.entrySet()) {
+                attributes[entry.getValue()] = entry.getKey();
+            }
+
+            String[] values = new String[attributes.length];
+            for(CSVRecord record : parser) {
+                // Short records are missing their last attributes
+                for(int i = 0; i < values.length; i++) {
+                    values[i] = i < record.size() ? record.get(i) : null;
+                }
+                builder.addRow(attributes, values);
+            }
+        }
+        return builder.build();
+    }
+}
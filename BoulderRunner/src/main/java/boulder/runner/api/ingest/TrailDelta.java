@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.ingest;
+
+import java.util.BitSet;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * The trails inserted, updated and deleted between two loads of the trail
+ * data. Trails are matched on their FID, or their AccessID if there is no
+ * FID, and compared on their encoded JSON.
+ *
+ * @author Kniggit
+ */
+public final class TrailDelta {
+
+    /** Attributes that identify a trail, in order of preference */
+    private static final String[] KEYS = { "FID", "AccessID" };
+
+    private final int inserted;
+    private final int updated;
+    private final int deleted;
+
+    private TrailDelta(int inserted, int updated, int deleted) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Compares the trails of two stores. If the trails can not be matched
+     * up, every trail is considered replaced.
+     * @param previous
+     * @param next
+     * @return
+     */
+    public static TrailDelta between(TrailStore previous, TrailStore next) {
+        String key = getKey(previous, next);
+        if(key == null) {
+            return new TrailDelta(next.size(), 0, previous.size());
+        }
+
+        TrailColumn previousKeys = previous.getColumn(key);
+        TrailColumn nextKeys = next.getColumn(key);
+        BitSet matched = new BitSet(previous.size());
+        int inserted = 0;
+        int updated = 0;
+        for(int row = 0; row < next.size(); row++) {
+            int nextCode = nextKeys.getCode(row);
+            int previousCode = nextCode == TrailColumn.MISSING ? TrailColumn.MISSING
+                    : previousKeys.getCode(nextKeys.getValue(nextCode));
+            if(previousCode == TrailColumn.MISSING) {
+                inserted++;
+                continue;
+            }
+            int previousRow = previousKeys.getFirstRow(previousCode);
+            matched.set(previousRow);
+            if(!previous.getEncodedTrail(previousRow).equals(next.getEncodedTrail(row))) {
+                updated++;
+            }
+        }
+        return new TrailDelta(inserted, updated, previous.size() - matched.cardinality());
+    }
+
+    /**
+     * Returns the first key attribute that identifies every trail of both
+     * stores, or null if there is none
+     */
+    private static String getKey(TrailStore previous, TrailStore next) {
+        for(String key : KEYS) {
+            TrailColumn previousKeys = previous.getColumn(key);
+            TrailColumn nextKeys = next.getColumn(key);
+            if(previousKeys != null && nextKeys != null && previousKeys.isUnique() && nextKeys.isUnique()) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of trails that were not there before
+     * @return
+     */
+    public int getInserted() {
+        return inserted;
+    }
+
+    /**
+     * Number of trails whose attributes changed
+     * @return
+     */
+    public int getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Number of trails that are gone
+     * @return
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Checks whether both loads hold exactly the same trails
+     * @return
+     */
+    public boolean isEmpty() {
+        return inserted == 0 && updated == 0 && deleted == 0;
+    }
+
+    @Override
+    public String toString() {
+        return inserted + " inserted, " + updated + " updated, " + deleted + " deleted";
+    }
+}
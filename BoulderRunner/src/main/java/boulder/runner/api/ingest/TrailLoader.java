@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.ingest;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.store.SnapshotFile;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Downloads the latest trail head data in the background and publishes
+ * it to the TrailRepository.
+ *
+ * A new TrailStore is built off the request path and swapped in at once.
+ * Conditional requests (If-None-Match / If-Modified-Since) are used so an
+ * unchanged CSV costs a single round trip and no parsing. If a refresh
+ * fails the last good trails keep being served.
+ *
+ * After every successful load the trails are written to a SnapshotFile. On
+ * startup that snapshot is memory mapped and served right away, and the
+ * first refresh then reconciles it with the source.
+ *
+ * The source has to connect and send data within the configured timeouts,
+ * so a hung server fails the refresh instead of blocking every later one.
+ *
+ * The time to read the trails and the number read are recorded to the
+ * TrailMetrics, failures are logged.
+ *
+ * @author Kniggit
+ */
+@Component
+public class TrailLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrailLoader.class);
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    private final TrailRepository repository;
+    private final URL source;
+    private final SnapshotFile snapshotFile;
+    private final TrailMetrics metrics;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private String etag;
+    private long lastModified;
+    // Store held by the snapshot file, null if it is unknown or stale
+    private TrailStore snapshotStore;
+    private volatile TrailDelta lastDelta;
+
+    /**
+     * Creates a loader whose metrics are only kept in memory
+     * @param repository Repository the loaded trails are published to
+     * @param source URL of the trail head CSV, may be a file: URL
+     * @param snapshotPath Location of the snapshot file, empty to disable snapshots
+     * @throws MalformedURLException
+     */
+    public TrailLoader(TrailRepository repository, String source, String snapshotPath)
+            throws MalformedURLException {
+        this(repository, source, snapshotPath, new TrailMetrics(repository));
+    }
+
+    /**
+     * Creates a loader with the default timeouts
+     * @param repository Repository the loaded trails are published to
+     * @param source URL of the trail head CSV, may be a file: URL
+     * @param snapshotPath Location of the snapshot file, empty to disable snapshots
+     * @param metrics Metrics the loads are recorded to
+     * @throws MalformedURLException
+     */
+    public TrailLoader(TrailRepository repository, String source, String snapshotPath, TrailMetrics metrics)
+            throws MalformedURLException {
+        this(repository, source, snapshotPath, metrics, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param repository Repository the loaded trails are published to
+     * @param source URL of the trail head CSV, may be a file: URL
+     * @param snapshotPath Location of the snapshot file, empty to disable snapshots
+     * @param metrics Metrics the loads are recorded to
+     * @param connectTimeout Milliseconds to wait for a connection to the source
+     * @param readTimeout Milliseconds to wait for data from the source
+     * @throws MalformedURLException
+     */
+    @Autowired
+    public TrailLoader(TrailRepository repository, @Value("${boulderrunner.source.url}") String source,
+            @Value("${boulderrunner.snapshot.file:}") String snapshotPath, TrailMetrics metrics,
+            @Value("${boulderrunner.source.connect-timeout:" + DEFAULT_CONNECT_TIMEOUT + "}") int connectTimeout,
+            @Value("${boulderrunner.source.read-timeout:" + DEFAULT_READ_TIMEOUT + "}") int readTimeout)
+            throws MalformedURLException {
+        this(repository, new URL(source), snapshotPath.isEmpty() ? null : new SnapshotFile(Paths.get(snapshotPath)),
+                metrics, connectTimeout, readTimeout);
+    }
+
+    /**
+     * @param repository Repository the loaded trails are published to
+     * @param source URL of the trail head CSV, may be a file: URL
+     * @param snapshotFile Snapshot file, null to disable snapshots
+     * @param metrics Metrics the loads are recorded to
+     * @param connectTimeout Milliseconds to wait for a connection to the source
+     * @param readTimeout Milliseconds to wait for data from the source
+     */
+    TrailLoader(TrailRepository repository, URL source, SnapshotFile snapshotFile, TrailMetrics metrics,
+            int connectTimeout, int readTimeout) {
+        this.repository = repository;
+        this.source = source;
+        this.snapshotFile = snapshotFile;
+        this.metrics = metrics;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Called on initialization to serve the trails of the last snapshot,
+     * if there is one, before the source is downloaded.
+     */
+    @PostConstruct
+    public void init() {
+        loadSnapshot();
+    }
+
+    /**
+     * Serves the trails of the last snapshot, if there is one
+     * @return true if trails were loaded from the snapshot
+     */
+    public synchronized boolean loadSnapshot() {
+        if(snapshotFile == null || !snapshotFile.exists()) {
+            return false;
+        }
+        try {
+            long start = System.nanoTime();
+            SnapshotFile.Contents contents = snapshotFile.read();
+            metrics.recordIngest(TrailMetrics.SNAPSHOT, System.nanoTime() - start, contents.getStore().size());
+            repository.publish(contents.getStore());
+            snapshotStore = contents.getStore();
+            // Send the caching headers of the snapshot so the first refresh
+            // does not download the CSV again if it did not change
+            etag = contents.getEtag();
+            lastModified = contents.getLastModified();
+            return true;
+        } catch (IOException e) {
+            metrics.recordIngestFailure(TrailMetrics.SNAPSHOT);
+            logger.warn("Unable to read trail snapshot: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Called on startup and then periodically to download the latest trail
+     * head data and publish it if it changed.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${boulderrunner.source.refresh-interval}")
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    /**
+     * Downloads the trail head data if it changed since the last refresh
+     * and publishes it if any trail was inserted, updated or deleted.
+     * @return true if new trails were published
+     */
+    public synchronized boolean refresh() {
+        long start = System.nanoTime();
+        try {
+            URLConnection connection = source.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            if(isNotModified(connection)) {
+                return false;
+            }
+            String newEtag = connection.getHeaderField("ETag");
+            long newLastModified = connection.getLastModified();
+
+            TrailStore store;
+            try(Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                store = TrailCsvReader.read(reader);
+            }
+            metrics.recordIngest(TrailMetrics.DOWNLOAD, System.nanoTime() - start, store.size());
+            etag = newEtag;
+            lastModified = newLastModified;
+
+            // Only swap in the new trails if they actually changed, so
+            // everything derived from the current trails stays valid
+            TrailStore current = repository.current();
+            lastDelta = TrailDelta.between(current, store);
+            logger.info("Read {} trails from {}: {}", store.size(), source, lastDelta);
+            if(lastDelta.isEmpty()) {
+                // Keep the current trails and snapshot, only remember the
+                // new caching headers
+                writeValidators(current);
+                return false;
+            }
+            repository.publish(store);
+            writeSnapshot(store);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // The last good trails are still being served
+            metrics.recordIngestFailure(TrailMetrics.DOWNLOAD);
+            logger.warn("Unable to refresh trails from {}: {}", source, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the difference between the trails loaded by the last refresh
+     * that downloaded the source and the trails served before it, or null
+     * if the source was never downloaded
+     * @return
+     */
+    public TrailDelta getLastDelta() {
+        return lastDelta;
+    }
+
+    /**
+     * Writes the store to the snapshot file. A failure only means the next
+     * startup has to wait for the source.
+     */
+    private void writeSnapshot(TrailStore store) {
+        if(snapshotFile == null) {
+            return;
+        }
+        // A failed write may leave the older snapshot in place
+        snapshotStore = null;
+        try {
+            snapshotFile.write(store, etag, lastModified);
+            snapshotStore = store;
+        } catch (IOException e) {
+            logger.warn("Unable to write trail snapshot: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Updates the caching headers of the snapshot, writing the whole store
+     * if the snapshot does not hold it, i.e. because there is none yet or
+     * writing it failed. The new headers must never be stamped on older
+     * trails, a restart would then serve them until the source changes.
+     */
+    private void writeValidators(TrailStore store) {
+        if(snapshotFile == null) {
+            return;
+        }
+        if(snapshotStore != store || !snapshotFile.exists()) {
+            writeSnapshot(store);
+            return;
+        }
+        try {
+            snapshotFile.writeValidators(etag, lastModified);
+        } catch (IOException e) {
+            logger.warn("Unable to update trail snapshot: {}", e.getMessage());
+            writeSnapshot(store);
+        }
+    }
+
+    /**
+     * Checks whether the source changed since the last refresh. For HTTP
+     * the server decides through a conditional request, for other sources
+     * (i.e. files) the last modified time is compared.
+     */
+    private boolean isNotModified(URLConnection connection) throws IOException {
+        if(connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection)connection;
+            if(etag != null) {
+                http.setRequestProperty("If-None-Match", etag);
+            }
+            if(lastModified > 0) {
+                http.setIfModifiedSince(lastModified);
+            }
+            if(http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                http.disconnect();
+                return true;
+            }
+            return false;
+        }
+
+        if(lastModified > 0 && connection.getLastModified() == lastModified) {
+            // Reading the header of a file opens it, make sure it is closed
+            connection.getInputStream().close();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.metrics;
+
+/**
+ * Timestamps of the phases of one query, recorded by
+ * {@link TrailMetrics#record}:
+ * <ul>
+ * <li>parse - from the start until the parameters are parsed and normalized</li>
+ * <li>filter - until the matching trails are known, or the cached response is found</li>
+ * <li>serialize - until the response is written to the client</li>
+ * </ul>
+ * Only used by the thread handling the query.
+ *
+ * @author Kniggit
+ */
+public final class QueryTimer {
+
+    private final String endpoint;
+    private final long start;
+    private long parsed;
+    private long filtered;
+    private long serialized;
+    private int matches = -1;
+    private String text;
+
+    QueryTimer(String endpoint) {
+        this.endpoint = endpoint;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the parse phase
+     */
+    public void parsed() {
+        parsed = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the filter phase
+     * @param matches Number of matching trails, -1 if the response was cached
+     */
+    public void filtered(int matches) {
+        this.filtered = System.nanoTime();
+        this.matches = matches;
+    }
+
+    /**
+     * Marks the end of the serialize phase
+     */
+    public void serialized() {
+        serialized = System.nanoTime();
+    }
+
+    /**
+     * Sets the text searched for, logged with slow queries
+     * @param text
+     */
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    int getMatches() {
+        return matches;
+    }
+
+    boolean isComplete() {
+        return parsed != 0 && filtered != 0 && serialized != 0;
+    }
+
+    long getParseNanos() {
+        return parsed - start;
+    }
+
+    long getFilterNanos() {
+        return filtered - parsed;
+    }
+
+    long getSerializeNanos() {
+        return serialized - filtered;
+    }
+
+    long getTotalNanos() {
+        return serialized - start;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Micrometer meters of trail ingestion and queries, exposed on
+ * /actuator/prometheus:
+ * <ul>
+ * <li>boulderrunner.ingest - time to read the trails, tagged with the source (download or snapshot)</li>
+ * <li>boulderrunner.ingest.rows - number of trails read</li>
+ * <li>boulderrunner.ingest.failures - downloads and snapshots that could not be read</li>
+ * <li>boulderrunner.trails - number of trails being served</li>
+ * <li>boulderrunner.trails.age - time since the trails being served were published</li>
+ * <li>boulderrunner.query - time of the parse, filter and serialize phases per endpoint</li>
+ * <li>boulderrunner.query.matches - number of trails matching the filters per endpoint</li>
+ * <li>boulderrunner.query.filters - number of filters on every attribute</li>
+ * </ul>
+ * Queries taking longer than boulderrunner.slow-query.threshold are logged
+ * with their normalized parameters and phase times to the
+ * boulderrunner.slow-query logger.
+ *
+ * Recording a query takes a few clock reads and counter increments. The
+ * meters of every endpoint and attribute are looked up once and reused.
+ *
+ * @author Kniggit
+ */
+@Component
+public class TrailMetrics {
+
+    /** Name of the logger slow queries are logged to */
+    public static final String SLOW_QUERY_LOG = "boulderrunner.slow-query";
+
+    public static final String TRAILS = "trails";
+    public static final String SEARCH = "search";
+    public static final String FACETS = "facets";
+    public static final String BATCH = "batch";
+    public static final String SIMILAR = "similar";
+    public static final String DOWNLOAD = "download";
+    public static final String SNAPSHOT = "snapshot";
+
+    private static final Logger slowQueryLog = LoggerFactory.getLogger(SLOW_QUERY_LOG);
+
+    // Filters on attributes the trails do not have are counted together,
+    // so request parameters can not create any number of meters
+    private static final String OTHER = "other";
+    private static final String OPERATOR_CHARS = "=!<>~";
+
+    private final MeterRegistry registry;
+    private final long slowQueryNanos;
+    private final Map<String, QueryMeters> queryMeters = new ConcurrentHashMap<String, QueryMeters>();
+    private final Map<String, Counter> filterCounters = new ConcurrentHashMap<String, Counter>();
+    private volatile long publishedAt;
+
+    /**
+     * Creates metrics kept in memory only, without a slow query log
+     * @param repository Repository holding the trails being served
+     */
+    public TrailMetrics(TrailRepository repository) {
+        this(new SimpleMeterRegistry(), repository, -1);
+    }
+
+    /**
+     * @param registry Registry the meters are registered with
+     * @param repository Repository holding the trails being served
+     * @param slowQueryMillis Milliseconds after which a query is logged as slow, negative to disable
+     */
+    @Autowired
+    public TrailMetrics(MeterRegistry registry, TrailRepository repository,
+            @Value("${boulderrunner.slow-query.threshold:-1}") long slowQueryMillis) {
+        this.registry = registry;
+        this.slowQueryNanos = slowQueryMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+
+        Gauge.builder("boulderrunner.trails", repository, r -> r.current().size())
+                .description("Number of trails being served")
+                .register(registry);
+        TimeGauge.builder("boulderrunner.trails.age", this, TimeUnit.MILLISECONDS,
+                m -> m.publishedAt == 0 ? 0 : System.currentTimeMillis() - m.publishedAt)
+                .description("Time since the trails being served were published")
+                .register(registry);
+        repository.addPublishListener(store -> publishedAt = System.currentTimeMillis());
+    }
+
+    /**
+     * Records reading the trails
+     * @param source DOWNLOAD or SNAPSHOT
+     * @param nanos Time taken
+     * @param rows Number of trails read
+     */
+    public void recordIngest(String source, long nanos, int rows) {
+        // Ingestion is rare, the meters are looked up every time
+        Timer.builder("boulderrunner.ingest")
+                .description("Time to read the trails")
+                .tag("source", source)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("boulderrunner.ingest.rows")
+                .description("Number of trails read")
+                .tag("source", source)
+                .register(registry)
+                .record(rows);
+    }
+
+    /**
+     * Records a failure to read the trails
+     * @param source DOWNLOAD or SNAPSHOT
+     */
+    public void recordIngestFailure(String source) {
+        registry.counter("boulderrunner.ingest.failures", "source", source).increment();
+    }
+
+    /**
+     * Starts timing a query
+     * @param endpoint TRAILS, SEARCH, FACETS, BATCH or SIMILAR
+     * @return
+     */
+    public QueryTimer start(String endpoint) {
+        return new QueryTimer(endpoint);
+    }
+
+    /**
+     * Records the phase times and matches of a completed query and the
+     * attributes it filtered on, and logs it if it was slow
+     * @param store Trails the query was answered from
+     * @param timer
+     * @param filters Filter parameters of the query
+     */
+    public void record(TrailStore store, QueryTimer timer, Map<String, List<String>> filters) {
+        if(!timer.isComplete()) {
+            return;
+        }
+        recordPhases(timer);
+        countFilters(store, filters);
+
+        if(isSlow(timer)) {
+            String params = QueryParser.normalize(filters);
+            if(timer.getText() != null) {
+                params = "q=" + timer.getText() + (params.isEmpty() ? "" : "&" + params);
+            }
+            slowQueryLog.warn("/{}{} took {} ms: parse {} ms, filter {} ms, serialize {} ms, {} matches",
+                    timer.getEndpoint(), params.isEmpty() ? "" : "?" + params, millis(timer.getTotalNanos()),
+                    millis(timer.getParseNanos()), millis(timer.getFilterNanos()), millis(timer.getSerializeNanos()),
+                    timer.getMatches() < 0 ? "cached" : Integer.toString(timer.getMatches()));
+        }
+    }
+
+    /**
+     * Records the phase times and matches of a completed batch and the
+     * attributes its queries filtered on, and logs it if it was slow
+     * @param store Trails the batch was answered from
+     * @param timer
+     * @param queries Filter parameters of every query of the batch
+     */
+    public void record(TrailStore store, QueryTimer timer, List<Map<String, List<String>>> queries) {
+        if(!timer.isComplete()) {
+            return;
+        }
+        recordPhases(timer);
+        for(Map<String, List<String>> filters : queries) {
+            countFilters(store, filters);
+        }
+
+        if(isSlow(timer)) {
+            // The parameters of a batch are too long for the log
+            slowQueryLog.warn("/{} took {} ms: parse {} ms, filter {} ms, serialize {} ms, {} queries, {} matches",
+                    timer.getEndpoint(), millis(timer.getTotalNanos()), millis(timer.getParseNanos()),
+                    millis(timer.getFilterNanos()), millis(timer.getSerializeNanos()), queries.size(),
+                    timer.getMatches());
+        }
+    }
+
+    private void recordPhases(QueryTimer timer) {
+        QueryMeters meters = queryMeters.computeIfAbsent(timer.getEndpoint(), e -> new QueryMeters(registry, e));
+        meters.parse.record(timer.getParseNanos(), TimeUnit.NANOSECONDS);
+        meters.filter.record(timer.getFilterNanos(), TimeUnit.NANOSECONDS);
+        meters.serialize.record(timer.getSerializeNanos(), TimeUnit.NANOSECONDS);
+        if(timer.getMatches() >= 0) {
+            meters.matches.record(timer.getMatches());
+        }
+    }
+
+    private void countFilters(TrailStore store, Map<String, List<String>> filters) {
+        for(Entry<String, List<String>> filter : filters.entrySet()) {
+            if(QueryParser.OR.equals(filter.getKey())) {
+                // The attributes of OR are in the clauses
+                for(String clause : filter.getValue()) {
+                    countFilter(store, clause);
+                }
+            } else {
+                countFilter(store, filter.getKey());
+            }
+        }
+    }
+
+    private boolean isSlow(QueryTimer timer) {
+        return slowQueryNanos >= 0 && timer.getTotalNanos() >= slowQueryNanos;
+    }
+
+    /**
+     * Counts a filter on the attribute of the parameter name or clause,
+     * i.e. ParkSpaces for ParkSpaces&gt;=20
+     */
+    private void countFilter(TrailStore store, String clause) {
+        int end = 0;
+        while(end < clause.length() && OPERATOR_CHARS.indexOf(clause.charAt(end)) < 0) {
+            end++;
+        }
+        String attribute = clause.substring(0, end).trim();
+        if(!QueryParser.OPEN_ON.equals(attribute) && store.getColumn(attribute) == null) {
+            attribute = OTHER;
+        }
+        filterCounters.computeIfAbsent(attribute, a -> Counter.builder("boulderrunner.query.filters")
+                .description("Number of filters on the attribute")
+                .tag("attribute", a)
+                .register(registry))
+                .increment();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Meters of the queries of one endpoint
+     */
+    private static class QueryMeters {
+        private final Timer parse;
+        private final Timer filter;
+        private final Timer serialize;
+        private final DistributionSummary matches;
+
+        QueryMeters(MeterRegistry registry, String endpoint) {
+            parse = phase(registry, endpoint, "parse");
+            filter = phase(registry, endpoint, "filter");
+            serialize = phase(registry, endpoint, "serialize");
+            matches = DistributionSummary.builder("boulderrunner.query.matches")
+                    .description("Number of trails matching the filters")
+                    .tag("endpoint", endpoint)
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(1000000L)
+                    .register(registry);
+        }
+
+        private static Timer phase(MeterRegistry registry, String endpoint, String phase) {
+            return Timer.builder("boulderrunner.query")
+                    .description("Time of a phase of answering a query")
+                    .tags("endpoint", endpoint, "phase", phase)
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Compares a single trail attribute to one or more values, i.e.
+ * Fee=No, Class IN (T1, T2), ParkSpaces>=20 or AccessName~=Flagstaff.
+ *
+ * The comparison is made once per distinct value of the attribute, not
+ * once per trail. Compiling a clause collects the dictionary codes that
+ * match, and evaluating it is a union of the rows of those codes.
+ *
+ * @author Kniggit
+ */
+public class Clause implements Predicate {
+
+    private final String attribute;
+    private final Operator operator;
+    private final List<String> values;
+
+    /**
+     * @param attribute Trail attribute to compare
+     * @param operator
+     * @param values Values to compare to, only EQ accepts more than one
+     */
+    public Clause(String attribute, Operator operator, List<String> values) {
+        if(values.isEmpty() || (operator != Operator.EQ && values.size() > 1)) {
+            throw new IllegalArgumentException(operator.getSymbol() + " takes a single value: " + attribute);
+        }
+        this.attribute = attribute;
+        this.operator = operator;
+        this.values = Collections.unmodifiableList(new ArrayList<String>(values));
+    }
+
+    /**
+     * @param attribute Trail attribute to compare
+     * @param operator
+     * @param value Value to compare to
+     */
+    public Clause(String attribute, Operator operator, String value) {
+        this(attribute, operator, Collections.singletonList(value));
+    }
+
+    /**
+     * Trail attribute compared by this clause
+     * @return
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * Comparison made by this clause
+     * @return
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Values the attribute is compared to
+     * @return
+     */
+    public List<String> getValues() {
+        return values;
+    }
+
+    @Override
+    public Plan compile(TrailStore store) {
+        TrailColumn column = store.getColumn(attribute);
+        if(column == null) {
+            // No trail has the attribute, nothing can match
+            return new CodePlan(null, new int[0], 0);
+        }
+
+        List<Integer> matching = new ArrayList<Integer>();
+        if(operator == Operator.EQ) {
+            // Exact values are looked up, no need to scan the dictionary
+            for(String value : values) {
+                int code = column.getCode(value);
+                if(code != TrailColumn.MISSING && !matching.contains(code)) {
+                    matching.add(code);
+                }
+            }
+        } else {
+            String operand = values.get(0);
+            double operandNumber = TrailColumn.toNumber(operand);
+            for(int code = 0; code < column.getCardinality(); code++) {
+                if(operator.matches(column.getValue(code), column.getNumber(code), operand, operandNumber)) {
+                    matching.add(code);
+                }
+            }
+        }
+
+        int[] codes = new int[matching.size()];
+        int estimate = 0;
+        for(int i = 0; i < codes.length; i++) {
+            codes[i] = matching.get(i);
+            estimate += column.getCount(codes[i]);
+        }
+        return new CodePlan(column, codes, estimate);
+    }
+
+    @Override
+    public String toString() {
+        if(values.size() > 1) {
+            return attribute + " IN " + values;
+        }
+        return attribute + operator.getSymbol() + values.get(0);
+    }
+
+    /**
+     * Plan matching every trail holding one of the given codes of a column
+     */
+    private static class CodePlan extends Plan {
+
+        private final TrailColumn column;
+        private final int[] codes;
+        private final int estimate;
+
+        CodePlan(TrailColumn column, int[] codes, int estimate) {
+            this.column = column;
+            this.codes = codes;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int estimate() {
+            return estimate;
+        }
+
+        @Override
+        public BitSet evaluate() {
+            BitSet matches = new BitSet();
+            or(matches);
+            return matches;
+        }
+
+        @Override
+        public void and(BitSet matches) {
+            if(codes.length == 1) {
+                // Intersect with the shared bitmap without copying it
+                matches.and(column.getBitmap(codes[0]));
+            } else {
+                matches.and(evaluate());
+            }
+        }
+
+        @Override
+        public void or(BitSet matches) {
+            for(int code : codes) {
+                column.addRows(code, matches);
+            }
+        }
+    }
+}
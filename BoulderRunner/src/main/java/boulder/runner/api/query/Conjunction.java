@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Matches the trails matching every one of its predicates. An empty
+ * conjunction matches ALL trails.
+ *
+ * The compiled plan evaluates the predicates ordered by their estimated
+ * number of matches, so the working set shrinks as fast as possible, and
+ * stops as soon as nothing is left.
+ *
+ * @author Kniggit
+ */
+public class Conjunction implements Predicate {
+
+    private final List<Predicate> predicates;
+
+    /**
+     * @param predicates Predicates that must all match
+     */
+    public Conjunction(List<Predicate> predicates) {
+        this.predicates = Collections.unmodifiableList(new ArrayList<Predicate>(predicates));
+    }
+
+    /**
+     * Predicates that must all match
+     * @return
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    @Override
+    public Plan compile(TrailStore store) {
+        final List<Plan> plans = new ArrayList<Plan>(predicates.size());
+        for(Predicate predicate : predicates) {
+            plans.add(predicate.compile(store));
+        }
+        // Most selective first
+        plans.sort(Comparator.comparingInt(Plan::estimate));
+        final int size = store.size();
+        return new Plan() {
+
+            @Override
+            public int estimate() {
+                return plans.isEmpty() ? size : plans.get(0).estimate();
+            }
+
+            @Override
+            public BitSet evaluate() {
+                if(plans.isEmpty()) {
+                    BitSet matches = new BitSet(size);
+                    matches.set(0, size);
+                    return matches;
+                }
+                BitSet matches = plans.get(0).evaluate();
+                for(int i = 1; i < plans.size() && !matches.isEmpty(); i++) {
+                    plans.get(i).and(matches);
+                }
+                return matches;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("(");
+        for(Predicate predicate : predicates) {
+            if(text.length() > 1) {
+                text.append(" AND ");
+            }
+            text.append(predicate);
+        }
+        return text.append(')').toString();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Matches the trails matching at least one of its predicates. An empty
+ * disjunction matches no trails.
+ *
+ * @author Kniggit
+ */
+public class Disjunction implements Predicate {
+
+    private final List<Predicate> predicates;
+
+    /**
+     * @param predicates Predicates of which at least one must match
+     */
+    public Disjunction(List<Predicate> predicates) {
+        this.predicates = Collections.unmodifiableList(new ArrayList<Predicate>(predicates));
+    }
+
+    /**
+     * Predicates of which at least one must match
+     * @return
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    @Override
+    public Plan compile(TrailStore store) {
+        final List<Plan> plans = new ArrayList<Plan>(predicates.size());
+        int sum = 0;
+        for(Predicate predicate : predicates) {
+            Plan plan = predicate.compile(store);
+            // Alternatives that can not match are dropped
+            if(plan.estimate() > 0) {
+                plans.add(plan);
+                sum += plan.estimate();
+            }
+        }
+        final int estimate = Math.min(sum, store.size());
+        return new Plan() {
+
+            @Override
+            public int estimate() {
+                return estimate;
+            }
+
+            @Override
+            public BitSet evaluate() {
+                BitSet matches = new BitSet();
+                for(Plan plan : plans) {
+                    plan.or(matches);
+                }
+                return matches;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("(");
+        for(Predicate predicate : predicates) {
+            if(text.length() > 1) {
+                text.append(" OR ");
+            }
+            text.append(predicate);
+        }
+        return text.append(')').toString();
+    }
+}
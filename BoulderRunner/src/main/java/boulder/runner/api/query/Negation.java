@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.util.BitSet;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Matches every trail the wrapped predicate does not match, including
+ * trails that do not have the compared attribute at all (i.e. Fee!=Yes
+ * matches trails without a Fee).
+ *
+ * @author Kniggit
+ */
+public class Negation implements Predicate {
+
+    private final Predicate predicate;
+
+    /**
+     * @param predicate Predicate to negate
+     */
+    public Negation(Predicate predicate) {
+        this.predicate = predicate;
+    }
+
+    /**
+     * The negated predicate
+     * @return
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    @Override
+    public Plan compile(TrailStore store) {
+        final Plan negated = predicate.compile(store);
+        final int size = store.size();
+        return new Plan() {
+
+            @Override
+            public int estimate() {
+                // The negated estimate is an upper bound, so all that is
+                // known of its complement is that it is at most every trail
+                return size;
+            }
+
+            @Override
+            public BitSet evaluate() {
+                BitSet matches = negated.evaluate();
+                matches.flip(0, size);
+                return matches;
+            }
+
+            @Override
+            public void and(BitSet matches) {
+                matches.andNot(negated.evaluate());
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "NOT (" + predicate + ")";
+    }
+}
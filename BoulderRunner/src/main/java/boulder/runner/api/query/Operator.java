@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+/**
+ * Comparisons a {@link Clause} can make between a trail attribute and the
+ * values of the query. Not equal is expressed as a {@link Negation} of
+ * EQ, so it also matches trails that do not have the attribute at all.
+ *
+ * @author Kniggit
+ */
+public enum Operator {
+
+    /** Equal to one of the values, i.e. IN when there are several */
+    EQ("="),
+    GT(">"),
+    GE(">="),
+    LT("<"),
+    LE("<="),
+    /** Starts with the value */
+    PREFIX("~=");
+
+    private final String symbol;
+
+    private Operator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * The operator as written in a query, i.e. >=
+     * @return
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Checks whether an attribute value satisfies this operator for the
+     * operand. Ranges compare numerically (see TrailColumn.toNumber) when
+     * the operand is a number or date, and as strings otherwise.
+     * @param value Attribute value
+     * @param number Attribute value as a number, NaN if it is not one
+     * @param operand Value of the query
+     * @param operandNumber Value of the query as a number, NaN if it is not one
+     * @return
+     */
+    public boolean matches(String value, double number, String operand, double operandNumber) {
+        if(this == EQ) {
+            return value.equals(operand);
+        }
+        if(this == PREFIX) {
+            return value.startsWith(operand);
+        }
+
+        int comparison;
+        if(!Double.isNaN(operandNumber)) {
+            // Values that are not numbers (i.e. empty) are not in any numeric range
+            if(Double.isNaN(number)) {
+                return false;
+            }
+            comparison = Double.compare(number, operandNumber);
+        } else {
+            comparison = value.compareTo(operand);
+        }
+        switch(this) {
+        case GT:
+            return comparison > 0;
+        case GE:
+            return comparison >= 0;
+        case LT:
+            return comparison < 0;
+        default:
+            return comparison <= 0;
+        }
+    }
+}
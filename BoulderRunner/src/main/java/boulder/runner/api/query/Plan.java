@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.util.BitSet;
+
+/**
+ * A {@link Predicate} compiled against one TrailStore. Attribute values
+ * are already resolved to dictionary codes and the number of matching
+ * trails is estimated from the per code counts of the store, so the plan
+ * can be evaluated again and again without looking at the query.
+ *
+ * Plans are immutable and may be evaluated by several threads at once.
+ *
+ * @author Kniggit
+ */
+public abstract class Plan {
+
+    /**
+     * Upper bound of the number of trails matching this plan, used to
+     * evaluate the most selective clauses first
+     * @return
+     */
+    public abstract int estimate();
+
+    /**
+     * Returns the rows of all matching trails. The bitmap belongs to the
+     * caller and may be modified.
+     * @return
+     */
+    public abstract BitSet evaluate();
+
+    /**
+     * Removes the rows not matching this plan from the bitmap
+     * @param matches
+     */
+    public void and(BitSet matches) {
+        matches.and(evaluate());
+    }
+
+    /**
+     * Adds the rows matching this plan to the bitmap
+     * @param matches
+     */
+    public void or(BitSet matches) {
+        matches.or(evaluate());
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * A node of a parsed trail query, i.e. a single attribute comparison or
+ * an AND, OR or NOT of other predicates. Predicates do not depend on any
+ * trail data until they are compiled into a {@link Plan}.
+ *
+ * @author Kniggit
+ */
+public interface Predicate {
+
+    /**
+     * Compiles this predicate against the trails of the given store
+     * @param store
+     * @return
+     */
+    Plan compile(TrailStore store);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Finds the trails matching /trails filter parameters.
+ *
+ * Every distinct query is parsed and compiled into a {@link Plan} once.
+ * Plans are kept in a bounded LRU cache keyed by the normalized query
+ * text, so a repeated query skips parsing and compiling and goes straight
+ * to the bitmap operations. Plans are bound to the TrailStore they were
+ * compiled against, the cache is dropped as soon as a different store is
+ * queried.
+ *
+ * @author Kniggit
+ */
+public class QueryEngine {
+
+    private final int maxPlans;
+    private final LinkedHashMap<String, Plan> plans;
+    private TrailStore store;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxPlans Maximum number of compiled plans to hold, 0 disables the cache
+     */
+    public QueryEngine(int maxPlans) {
+        this.maxPlans = maxPlans;
+        this.plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Plan> eldest) {
+                return size() > QueryEngine.this.maxPlans;
+            }
+        };
+    }
+
+    /**
+     * Returns the rows of all trails in the store matching the filters.
+     * If there are no filters, ALL rows are returned.
+     * @param store
+     * @param filters Parameter values keyed by parameter name
+     * @return
+     * @throws IllegalArgumentException If the filters are not a valid query
+     */
+    public BitSet find(TrailStore store, Map<String, List<String>> filters) {
+        return find(store, QueryParser.normalize(filters), filters);
+    }
+
+    /**
+     * Returns the rows of all trails in the store matching the filters
+     * @param store
+     * @param key Normalized text of the filters (see QueryParser.normalize)
+     * @param filters Parameter values keyed by parameter name
+     * @return
+     * @throws IllegalArgumentException If the filters are not a valid query
+     */
+    public BitSet find(TrailStore store, String key, Map<String, List<String>> filters) {
+        return getPlan(store, key, filters).evaluate();
+    }
+
+    /**
+     * Returns the compiled plan of the filters, compiling it if it is not
+     * cached yet
+     * @param store
+     * @param key Normalized text of the filters (see QueryParser.normalize)
+     * @param filters Parameter values keyed by parameter name
+     * @return
+     */
+    public Plan getPlan(TrailStore store, String key, Map<String, List<String>> filters) {
+        synchronized(this) {
+            if(this.store != store) {
+                plans.clear();
+                this.store = store;
+            }
+            Plan plan = plans.get(key);
+            if(plan != null) {
+                hits++;
+                return plan;
+            }
+            misses++;
+        }
+
+        // Compile outside the lock, racing threads compile the same plan
+        Plan plan = QueryParser.parse(filters).compile(store);
+        synchronized(this) {
+            if(this.store == store && maxPlans > 0) {
+                plans.put(key, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the hit and miss counts as well as the current size of the
+     * plan cache
+     * @return
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("size", (long)plans.size());
+        stats.put("maxEntries", (long)maxPlans);
+        return stats;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import boulder.runner.api.store.TrailColumn;
+
+/**
+ * Parses /trails filter parameters into a {@link Predicate}.
+ *
+ * Every parameter is a clause and all clauses must match:
+ * <ul>
+ * <li>Fee=No - equal</li>
+ * <li>Class=T1&amp;Class=T2 - repeating an attribute matches any of its values (IN)</li>
+ * <li>Fee!=Yes - not equal, also matches trails without the attribute</li>
+ * <li>ParkSpaces&gt;=20, ParkSpaces&lt;=50, ParkSpaces&gt;20, ParkSpaces&lt;50 - ranges, numeric
+ * for numbers and dates</li>
+ * <li>AccessName~=Flag - starts with</li>
+ * <li>or=BikeRack=Yes&amp;or=ParkSpaces&gt;=20 - at least one of the clauses passed as or
+ * must match</li>
+ * <li>openOn=2016-06-01 - trails open on the date, i.e. with no DateFrom after and no
+ * DateTo before it</li>
+ * </ul>
+ *
+ * @author Kniggit
+ */
+public final class QueryParser {
+
+    /** Parameter holding clauses of which at least one must match */
+    public static final String OR = "or";
+    /** Parameter holding the date trails must be open on */
+    public static final String OPEN_ON = "openOn";
+
+    private static final String DATE_FROM = "DateFrom";
+    private static final String DATE_TO = "DateTo";
+    private static final String OPERATOR_CHARS = "=!<>~";
+
+    private QueryParser() {
+    }
+
+    /**
+     * Parses the filter parameters of a request
+     * @param filters Parameter values keyed by parameter name
+     * @return
+     * @throws IllegalArgumentException If a parameter is not a valid clause
+     */
+    public static Predicate parse(Map<String, List<String>> filters) {
+        // Equality clauses on the same attribute are merged into one IN
+        Map<String, List<String>> equals = new LinkedHashMap<String, List<String>>();
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        List<Predicate> alternatives = new ArrayList<Predicate>();
+        for(Entry<String, List<String>> entry : filters.entrySet()) {
+            for(String value : entry.getValue()) {
+                if(OR.equals(entry.getKey())) {
+                    alternatives.add(parseClause(value));
+                } else if(OPEN_ON.equals(entry.getKey())) {
+                    predicates.add(openOn(value));
+                } else {
+                    Predicate predicate = parseClause(toClause(entry.getKey(), value));
+                    if(predicate instanceof Clause && ((Clause)predicate).getOperator() == Operator.EQ) {
+                        Clause clause = (Clause)predicate;
+                        equals.computeIfAbsent(clause.getAttribute(), k -> new ArrayList<String>())
+                                .addAll(clause.getValues());
+                    } else {
+                        predicates.add(predicate);
+                    }
+                }
+            }
+        }
+
+        List<Predicate> all = new ArrayList<Predicate>();
+        for(Entry<String, List<String>> entry : equals.entrySet()) {
+            all.add(new Clause(entry.getKey(), Operator.EQ, entry.getValue()));
+        }
+        all.addAll(predicates);
+        if(!alternatives.isEmpty()) {
+            all.add(alternatives.size() == 1 ? alternatives.get(0) : new Disjunction(alternatives));
+        }
+        return new Conjunction(all);
+    }
+
+    /**
+     * Parses a single clause written as attribute, operator and value,
+     * i.e. ParkSpaces&gt;=20
+     * @param text
+     * @return
+     * @throws IllegalArgumentException If there is no attribute or operator
+     */
+    public static Predicate parseClause(String text) {
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(OPERATOR_CHARS.indexOf(c) < 0) {
+                continue;
+            }
+
+            String attribute = text.substring(0, i).trim();
+            if(attribute.isEmpty()) {
+                throw new IllegalArgumentException("Missing attribute in: " + text);
+            }
+            boolean orEqual = i + 1 < text.length() && text.charAt(i + 1) == '=';
+            int valueStart = c == '=' || !orEqual ? i + 1 : i + 2;
+            String value = text.substring(valueStart);
+            switch(c) {
+            case '=':
+                return new Clause(attribute, Operator.EQ, value);
+            case '<':
+                return new Clause(attribute, orEqual ? Operator.LE : Operator.LT, value);
+            case '>':
+                return new Clause(attribute, orEqual ? Operator.GE : Operator.GT, value);
+            default:
+                if(!orEqual) {
+                    throw new IllegalArgumentException("Unknown operator in: " + text);
+                }
+                if(c == '!') {
+                    return new Negation(new Clause(attribute, Operator.EQ, value));
+                }
+                return new Clause(attribute, Operator.PREFIX, value);
+            }
+        }
+        throw new IllegalArgumentException("Missing operator in: " + text);
+    }
+
+    /**
+     * Builds the normalized text of the filter parameters. Two requests
+     * with the same parameters in a different order, or with the values
+     * of a repeated parameter in a different order, have the same text.
+     * @param filters Parameter values keyed by parameter name
+     * @return
+     */
+    public static String normalize(Map<String, List<String>> filters) {
+        StringBuilder text = new StringBuilder();
+        for(Entry<String, List<String>> entry : new TreeMap<String, List<String>>(filters).entrySet()) {
+            String[] values = entry.getValue().toArray(new String[0]);
+            Arrays.sort(values);
+            for(String value : values) {
+                if(text.length() > 0) {
+                    text.append('&');
+                }
+                text.append(encode(entry.getKey())).append('=').append(encode(value));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Rebuilds the clause text of a request parameter. The servlet splits
+     * ParkSpaces&gt;=20 into the name ParkSpaces&gt; and the value 20, and
+     * ParkSpaces&gt;20 into the name ParkSpaces&gt;20 and no value.
+     */
+    private static String toClause(String name, String value) {
+        boolean complete = value.isEmpty() && name.length() > 1
+                && OPERATOR_CHARS.indexOf(name.charAt(name.length() - 1)) < 0;
+        for(int i = 0; complete && i < name.length(); i++) {
+            if(OPERATOR_CHARS.indexOf(name.charAt(i)) >= 0) {
+                return name;
+            }
+        }
+        return name + "=" + value;
+    }
+
+    private static Predicate openOn(String date) {
+        if(Double.isNaN(TrailColumn.toNumber(date)) || !date.contains("-") && !date.contains("/")) {
+            throw new IllegalArgumentException(OPEN_ON + " must be a date: " + date);
+        }
+        // Trails without dates are always open
+        return new Conjunction(Arrays.<Predicate>asList(
+                new Negation(new Clause(DATE_FROM, Operator.GT, date)),
+                new Negation(new Clause(DATE_TO, Operator.LT, date))));
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+}
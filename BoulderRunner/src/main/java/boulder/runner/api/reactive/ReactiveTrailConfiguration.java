@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.reactive;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.store.TrailRepository;
+
+/**
+ * Serves the trail endpoints with WebFlux on Netty. Only active when the
+ * application is started with spring.main.web-application-type=reactive,
+ * otherwise the BoulderRunnerController serves them on Tomcat.
+ *
+ * @author Kniggit
+ */
+@Configuration
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveTrailConfiguration {
+
+    /**
+     * Handler of the trail endpoints
+     * @param repository
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     * @param metrics
+     * @return
+     */
+    @Bean
+    public TrailHandler trailHandler(TrailRepository repository,
+            @Value("${boulderrunner.cache.max-entries:256}") int cacheSize, TrailMetrics metrics) {
+        return new TrailHandler(repository, cacheSize, metrics);
+    }
+
+    /**
+     * Routes the trail endpoints to the handler
+     * @param handler
+     * @return
+     */
+    @Bean
+    public RouterFunction<ServerResponse> trailRoutes(TrailHandler handler) {
+        return route(GET("/trails"), handler::trails)
+                .andRoute(GET("/trails/search"), handler::search)
+                .andRoute(GET("/trails/facets"), handler::facets)
+                .andRoute(POST("/trails/batch"), handler::batch)
+                .andRoute(GET("/trails/similar"), handler::similarToLiked)
+                .andRoute(GET("/trails/{accessId}/similar"), handler::similar)
+                .andRoute(GET("/trails/cache"), handler::cacheStats);
+    }
+
+    /**
+     * Runs on Netty even though Tomcat is on the classpath for the
+     * servlet stack
+     * @return
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
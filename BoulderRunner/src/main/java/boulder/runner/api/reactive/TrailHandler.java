@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.reactive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.Supplier;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import boulder.runner.api.TrailRequest;
+import boulder.runner.api.TrailResponse;
+import boulder.runner.api.TrailService;
+import boulder.runner.api.TrailWriter;
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.store.TrailRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of the BoulderRunnerController, serving
+ * /trails, /trails/search, /trails/facets, /trails/batch, the similar trails and
+ * /trails/cache with the same parameters and responses (see {@link TrailRequest} and {@link QueryParser}).
+ * The responses are produced by the {@link TrailService}, this class
+ * only maps the WebFlux requests to it.
+ *
+ * Queries are answered from the in-memory TrailStore on the calling
+ * thread, which never blocks. Responses are a Flux of buffers holding a
+ * chunk of trails each. The Flux only encodes the next chunk once the
+ * client asked for it, so a slow client holds back the encoding instead
+ * of buffering the whole response.
+ *
+ * @author Kniggit
+ */
+public class TrailHandler {
+
+    private static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final TrailRepository repository;
+    private final TrailService service;
+    private final int chunkSize;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    /**
+     * @param repository Repository holding the trails being served
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     */
+    public TrailHandler(TrailRepository repository, int cacheSize) {
+        this(repository, cacheSize, new TrailMetrics(repository));
+    }
+
+    /**
+     * @param repository Repository holding the trails being served
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     * @param metrics Metrics the queries are recorded to
+     */
+    public TrailHandler(TrailRepository repository, int cacheSize, TrailMetrics metrics) {
+        this(repository, cacheSize, metrics, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param repository Repository holding the trails being served
+     * @param cacheSize Maximum number of /trails responses and compiled queries to cache
+     * @param metrics Metrics the queries are recorded to
+     * @param chunkSize Number of bytes after which a chunk of trails is emitted
+     */
+    TrailHandler(TrailRepository repository, int cacheSize, TrailMetrics metrics, int chunkSize) {
+        this.repository = repository;
+        this.service = new TrailService(repository, cacheSize, metrics);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns all trails matching the search parameters, see
+     * BoulderRunnerController.trails
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> trails(ServerRequest request) {
+        return respond(() -> service.trails(repository.current(), getQueryParams(request), getAccept(request)));
+    }
+
+    /**
+     * Returns the trails best matching the text in q, see
+     * BoulderRunnerController.search
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> search(ServerRequest request) {
+        return respond(() -> service.search(repository.current(), getQueryParams(request), getAccept(request)));
+    }
+
+    /**
+     * Returns the facet counts and sums of the trails matching the search
+     * parameters, see BoulderRunnerController.facets
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> facets(ServerRequest request) {
+        return respond(() -> service.facets(repository.current(), getQueryParams(request)));
+    }
+
+    /**
+     * Answers the queries in the JSON body of the request at once, see
+     * BoulderRunnerController.batch
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> batch(ServerRequest request) {
+        // Like on the servlet stack only JSON is accepted. The body of a
+        // form must not be read here, it is already read as form data.
+        MediaType contentType = request.headers().contentType().orElse(MediaType.APPLICATION_OCTET_STREAM);
+        if(!MediaType.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return ServerResponse.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).contentType(MediaType.TEXT_PLAIN)
+                    .syncBody("Content type " + contentType + " is not supported, use " + MediaType.APPLICATION_JSON);
+        }
+        String fields = getQueryParams(request).getFirst(TrailRequest.FIELDS);
+        return request.bodyToMono(String.class).defaultIfEmpty("")
+                .flatMap(body -> respond(() -> service.batch(repository.current(), body, fields)));
+    }
+
+    /**
+     * Returns the trails most similar to the trail with the AccessID in
+     * the path, see BoulderRunnerController.similar
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> similar(ServerRequest request) {
+        return respond(() -> service.similar(repository.current(), request.pathVariable("accessId"),
+                getQueryParams(request), getAccept(request)));
+    }
+
+    /**
+     * Returns the trails most similar to the liked trails, see
+     * BoulderRunnerController.similar
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> similarToLiked(ServerRequest request) {
+        return respond(() -> service.similarToLiked(repository.current(), getQueryParams(request),
+                getAccept(request)));
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the response cache
+     * @param request
+     * @return
+     */
+    public Mono<ServerResponse> cacheStats(ServerRequest request) {
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+                .syncBody(service.getCacheStats());
+    }
+
+    /**
+     * Sends the response of the service, streaming the trails chunk by
+     * chunk. Invalid parameters are answered with bad request, unknown
+     * trails with not found.
+     * @param call
+     * @return
+     */
+    private Mono<ServerResponse> respond(Supplier<TrailResponse> call) {
+        TrailResponse response;
+        try {
+            response = call.get();
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().contentType(MediaType.TEXT_PLAIN).syncBody(e.getMessage());
+        } catch (NoSuchElementException e) {
+            return ServerResponse.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN)
+                    .syncBody(e.getMessage());
+        }
+
+        Flux<DataBuffer> body = response.isStreamed() ? stream(response.getWriter(), response.getRows())
+                : Flux.just(bufferFactory.wrap(response.getBody()));
+        // Record the query once its response was written, or the client went away
+        return ServerResponse.ok().contentType(MediaType.parseMediaType(response.getContentType()))
+                .body(BodyInserters.fromDataBuffers(body.doFinally(signal -> response.complete())));
+    }
+
+    /**
+     * Encodes the trails of the rows into buffers of about chunkSize
+     * bytes. A chunk is only encoded when it is requested.
+     * @param writer
+     * @param rows
+     * @return
+     */
+    Flux<DataBuffer> stream(TrailWriter writer, PrimitiveIterator.OfInt rows) {
+        return Flux.generate(() -> new int[] { -1 }, (written, sink) -> {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(chunkSize + 1024);
+            try {
+                if(written[0] < 0) {
+                    writer.writeStart(chunk);
+                    written[0] = 0;
+                }
+                while(rows.hasNext() && chunk.size() < chunkSize) {
+                    writer.writeElement(written[0]++, rows.nextInt(), chunk);
+                }
+                if(!rows.hasNext()) {
+                    writer.writeEnd(chunk);
+                }
+            } catch (IOException e) {
+                // Writing to memory does not fail
+                sink.error(e);
+                return written;
+            }
+
+            if(chunk.size() > 0) {
+                sink.next(bufferFactory.wrap(chunk.toByteArray()));
+            }
+            if(!rows.hasNext()) {
+                sink.complete();
+            }
+            return written;
+        });
+    }
+
+    /**
+     * Returns a copy of the query parameters of the request. A parameter
+     * without a value, i.e. ParkSpaces&gt;20 or Fee, has the empty string
+     * as its value like on the servlet stack instead of null.
+     * @param request
+     * @return
+     */
+    private static MultiValueMap<String, String> getQueryParams(ServerRequest request) {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        request.queryParams().forEach((name, values) -> {
+            for(String value : values) {
+                params.add(name, value == null ? "" : value);
+            }
+        });
+        return params;
+    }
+
+    private static String getAccept(ServerRequest request) {
+        List<String> accept = request.headers().header(HttpHeaders.ACCEPT);
+        return accept.isEmpty() ? null : String.join(",", accept);
+    }
+}
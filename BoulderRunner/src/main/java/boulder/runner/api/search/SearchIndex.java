@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Full text index over the names, facility names and addresses of the
+ * trails of one TrailStore, for search as you type.
+ *
+ * Values are split into lower case tokens. The index holds the sorted
+ * vocabulary of all distinct tokens, for every token the dictionary values
+ * (entries) holding it, and for every trigram the tokens holding it. Only
+ * distinct values are indexed, trails are reached through the posting
+ * lists of their columns.
+ *
+ * Every query token matches vocabulary tokens it is a prefix of, found by
+ * binary search, and tokens within a small edit distance of it, found
+ * through shared trigrams. An entry must match every query token. Trails
+ * are ranked by how well their best entry matched, favouring names over
+ * addresses and values that start with the query.
+ *
+ * @author Kniggit
+ */
+public final class SearchIndex {
+
+    /** Attributes that are searched, most important first */
+    public static final List<String> ATTRIBUTES = Collections.unmodifiableList(
+            Arrays.asList("AccessName", "ADAfacName", "Address"));
+    private static final float[] WEIGHTS = { 1.0f, 0.8f, 0.6f };
+
+    private static final float PREFIX_SCORE = 0.7f;
+    private static final float FUZZY_SCORE = 0.6f;
+    private static final float FUZZY_PENALTY = 0.15f;
+    private static final float FIRST_TOKEN_BONUS = 0.5f;
+    /** Most vocabulary tokens a single query token is expanded to */
+    private static final int MAX_EXPANSIONS = 128;
+
+    private final TrailStore store;
+    private final String[] tokens;
+    private final int[][] tokenEntries;
+    private final Map<String, int[]> trigrams;
+    private final TrailColumn[] entryColumns;
+    private final int[] entryCodes;
+    private final float[] entryWeights;
+    private final int[] entryFirstTokens;
+
+    private SearchIndex(TrailStore store, String[] tokens, int[][] tokenEntries, Map<String, int[]> trigrams,
+            TrailColumn[] entryColumns, int[] entryCodes, float[] entryWeights, int[] entryFirstTokens) {
+        this.store = store;
+        this.tokens = tokens;
+        this.tokenEntries = tokenEntries;
+        this.trigrams = trigrams;
+        this.entryColumns = entryColumns;
+        this.entryCodes = entryCodes;
+        this.entryWeights = entryWeights;
+        this.entryFirstTokens = entryFirstTokens;
+    }
+
+    /**
+     * Builds the index over the searched attributes of the store
+     * @param store
+     * @return
+     */
+    public static SearchIndex of(TrailStore store) {
+        int entryCount = 0;
+        for(String attribute : ATTRIBUTES) {
+            TrailColumn column = store.getColumn(attribute);
+            entryCount += column == null ? 0 : column.getCardinality();
+        }
+
+        TrailColumn[] entryColumns = new TrailColumn[entryCount];
+        int[] entryCodes = new int[entryCount];
+        float[] entryWeights = new float[entryCount];
+        String[] firstTokens = new String[entryCount];
+        TreeMap<String, List<Integer>> vocabulary = new TreeMap<String, List<Integer>>();
+        int entry = 0;
+        for(int i = 0; i < ATTRIBUTES.size(); i++) {
+            TrailColumn column = store.getColumn(ATTRIBUTES.get(i));
+            for(int code = 0; column != null && code < column.getCardinality(); code++, entry++) {
+                entryColumns[entry] = column;
+                entryCodes[entry] = code;
+                entryWeights[entry] = WEIGHTS[i];
+                Set<String> valueTokens = new LinkedHashSet<String>(Arrays.asList(tokenize(column.getValue(code))));
+                for(String token : valueTokens) {
+                    if(firstTokens[entry] == null) {
+                        firstTokens[entry] = token;
+                    }
+                    vocabulary.computeIfAbsent(token, k -> new ArrayList<Integer>()).add(entry);
+                }
+            }
+        }
+
+        String[] tokens = vocabulary.keySet().toArray(new String[0]);
+        int[][] tokenEntries = new int[tokens.length][];
+        Map<String, List<Integer>> trigramTokens = new HashMap<String, List<Integer>>();
+        for(int id = 0; id < tokens.length; id++) {
+            tokenEntries[id] = toArray(vocabulary.get(tokens[id]));
+            for(String trigram : trigrams(tokens[id])) {
+                trigramTokens.computeIfAbsent(trigram, k -> new ArrayList<Integer>()).add(id);
+            }
+        }
+        Map<String, int[]> trigrams = new HashMap<String, int[]>(trigramTokens.size() * 2);
+        for(Entry<String, List<Integer>> trigram : trigramTokens.entrySet()) {
+            trigrams.put(trigram.getKey(), toArray(trigram.getValue()));
+        }
+
+        int[] entryFirstTokens = new int[entryCount];
+        for(int i = 0; i < entryCount; i++) {
+            entryFirstTokens[i] = firstTokens[i] == null ? -1 : Arrays.binarySearch(tokens, firstTokens[i]);
+        }
+        return new SearchIndex(store, tokens, tokenEntries, trigrams, entryColumns, entryCodes, entryWeights,
+                entryFirstTokens);
+    }
+
+    /**
+     * The store this index was built from
+     * @return
+     */
+    public TrailStore getStore() {
+        return store;
+    }
+
+    /**
+     * Number of distinct tokens in the index
+     * @return
+     */
+    public int getVocabularySize() {
+        return tokens.length;
+    }
+
+    /**
+     * Returns the rows of the best matching trails, best match first
+     * @param query Text as typed by the user
+     * @param allowed Rows that may be returned, null for all
+     * @param offset Number of best matches to skip
+     * @param limit Maximum number of rows to return
+     * @return
+     */
+    public int[] search(String query, BitSet allowed, int offset, int limit) {
+        String[] terms = tokenize(query);
+        if(terms.length == 0 || limit == 0) {
+            return new int[0];
+        }
+
+        // Score every entry holding all terms with the sum of its best
+        // token score per term
+        Map<Integer, Float> entryScores = null;
+        Map<Integer, Float> firstTermTokens = null;
+        for(String term : terms) {
+            Map<Integer, Float> tokenScores = matchTokens(term);
+            if(firstTermTokens == null) {
+                firstTermTokens = tokenScores;
+            }
+            Map<Integer, Float> scores = new HashMap<Integer, Float>();
+            for(Entry<Integer, Float> token : tokenScores.entrySet()) {
+                for(int entry : tokenEntries[token.getKey()]) {
+                    if(entryScores != null && !entryScores.containsKey(entry)) {
+                        continue;
+                    }
+                    scores.merge(entry, token.getValue(), Math::max);
+                }
+            }
+            if(entryScores != null) {
+                for(Entry<Integer, Float> score : scores.entrySet()) {
+                    score.setValue(score.getValue() + entryScores.get(score.getKey()));
+                }
+            }
+            entryScores = scores;
+            if(entryScores.isEmpty()) {
+                return new int[0];
+            }
+        }
+
+        // A trail scores as well as its best entry
+        Map<Integer, Float> rowScores = new HashMap<Integer, Float>();
+        for(Entry<Integer, Float> score : entryScores.entrySet()) {
+            int entry = score.getKey();
+            float entryScore = score.getValue();
+            if(firstTermTokens.containsKey(entryFirstTokens[entry])) {
+                // Values starting with the query rank above values merely containing it
+                entryScore += FIRST_TOKEN_BONUS;
+            }
+            entryScore *= entryWeights[entry];
+            for(int row : entryColumns[entry].getRows(entryCodes[entry])) {
+                if(allowed == null || allowed.get(row)) {
+                    rowScores.merge(row, entryScore, Math::max);
+                }
+            }
+        }
+
+        return top(rowScores, offset, limit);
+    }
+
+    /**
+     * Splits a value into lower case tokens of letters and digits
+     * @param value
+     * @return
+     */
+    static String[] tokenize(String value) {
+        List<String> tokens = new ArrayList<String>();
+        for(String token : value.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if(!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the vocabulary tokens matching the query term and their score
+     */
+    private Map<Integer, Float> matchTokens(String term) {
+        Map<Integer, Float> scores = new HashMap<Integer, Float>();
+        int start = Arrays.binarySearch(tokens, term);
+        for(int id = start < 0 ? -start - 1 : start; id < tokens.length && scores.size() < MAX_EXPANSIONS
+                && tokens[id].startsWith(term); id++) {
+            scores.put(id, PREFIX_SCORE + (1 - PREFIX_SCORE) * term.length() / tokens[id].length());
+        }
+
+        int maxEdits = maxEdits(term);
+        if(maxEdits == 0) {
+            return scores;
+        }
+        // Every edit breaks at most 3 trigrams, tokens sharing fewer can not be close enough
+        Set<String> termTrigrams = trigrams(term);
+        Map<Integer, Integer> shared = new HashMap<Integer, Integer>();
+        for(String trigram : termTrigrams) {
+            int[] ids = trigrams.get(trigram);
+            for(int i = 0; ids != null && i < ids.length; i++) {
+                shared.merge(ids[i], 1, Integer::sum);
+            }
+        }
+        int minShared = Math.max(1, termTrigrams.size() - 3 * maxEdits);
+        int expansions = 0;
+        for(Entry<Integer, Integer> candidate : shared.entrySet()) {
+            if(candidate.getValue() < minShared || scores.containsKey(candidate.getKey())) {
+                continue;
+            }
+            int distance = prefixDistance(term, tokens[candidate.getKey()], maxEdits);
+            if(distance <= maxEdits) {
+                scores.put(candidate.getKey(), FUZZY_SCORE - FUZZY_PENALTY * distance);
+                if(++expansions >= MAX_EXPANSIONS) {
+                    break;
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Number of typos tolerated in a query term. Short terms have to match
+     * exactly, otherwise almost anything would match them.
+     */
+    private static int maxEdits(String term) {
+        if(term.length() <= 3) {
+            return 0;
+        }
+        return term.length() <= 7 ? 1 : 2;
+    }
+
+    /**
+     * Smallest edit distance (insertions, deletions, substitutions and
+     * swaps of adjacent characters) between the term and any prefix of
+     * the token
+     */
+    static int prefixDistance(String term, String token, int maxEdits) {
+        int m = term.length();
+        int n = Math.min(token.length(), m + maxEdits);
+        // column[i] is the distance between the first i characters of the
+        // term and the first j characters of the token
+        int[] previous2 = new int[m + 1];
+        int[] previous = new int[m + 1];
+        int[] column = new int[m + 1];
+        for(int i = 0; i <= m; i++) {
+            previous[i] = i;
+        }
+        int best = previous[m];
+        for(int j = 1; j <= n; j++) {
+            column[0] = j;
+            for(int i = 1; i <= m; i++) {
+                int cost = term.charAt(i - 1) == token.charAt(j - 1) ? 0 : 1;
+                column[i] = Math.min(Math.min(previous[i] + 1, column[i - 1] + 1), previous[i - 1] + cost);
+                if(i > 1 && j > 1 && term.charAt(i - 1) == token.charAt(j - 2)
+                        && term.charAt(i - 2) == token.charAt(j - 1)) {
+                    column[i] = Math.min(column[i], previous2[i - 2] + 1);
+                }
+            }
+            best = Math.min(best, column[m]);
+            int[] reused = previous2;
+            previous2 = previous;
+            previous = column;
+            column = reused;
+        }
+        return best;
+    }
+
+    /**
+     * Trigrams of a token, padded at the front so the start of the token
+     * counts more
+     */
+    private static Set<String> trigrams(String token) {
+        String padded = "  " + token;
+        Set<String> trigrams = new LinkedHashSet<String>();
+        for(int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Selects the rows with the highest scores with a bounded heap, ties
+     * go to the lower row
+     */
+    private static int[] top(Map<Integer, Float> rowScores, int offset, int limit) {
+        int wanted = (int)Math.min((long)offset + limit, rowScores.size());
+        PriorityQueue<Entry<Integer, Float>> heap = new PriorityQueue<Entry<Integer, Float>>(Math.max(1, wanted),
+                (a, b) -> a.getValue().equals(b.getValue()) ? Integer.compare(b.getKey(), a.getKey())
+                        : Float.compare(a.getValue(), b.getValue()));
+        for(Entry<Integer, Float> score : rowScores.entrySet()) {
+            heap.add(score);
+            if(heap.size() > wanted) {
+                heap.poll();
+            }
+        }
+
+        int[] ranked = new int[heap.size()];
+        for(int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = heap.poll().getKey();
+        }
+        return offset >= ranked.length ? new int[0] : Arrays.copyOfRange(ranked, offset, ranked.length);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for(int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
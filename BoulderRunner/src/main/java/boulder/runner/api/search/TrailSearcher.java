@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.search;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Keeps the {@link SearchIndex} of the store being served. Registered as
+ * a publish listener of the TrailRepository, so the index of new trail
+ * data is built while it is loaded. A store that was never published
+ * (i.e. in tests) gets its index built on first search.
+ *
+ * @author Kniggit
+ */
+public class TrailSearcher {
+
+    private final AtomicReference<SearchIndex> index = new AtomicReference<SearchIndex>();
+
+    /**
+     * Returns the index of the given store, building it if needed
+     * @param store
+     * @return
+     */
+    public SearchIndex getIndex(TrailStore store) {
+        SearchIndex current = index.get();
+        if(current == null || current.getStore() != store) {
+            current = SearchIndex.of(store);
+            index.set(current);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the rows of the best matching trails of the store, best
+     * match first (see SearchIndex.search)
+     * @param store
+     * @param query
+     * @param allowed Rows that may be returned, null for all
+     * @param offset
+     * @param limit
+     * @return
+     */
+    public int[] search(TrailStore store, String query, BitSet allowed, int offset, int limit) {
+        return getIndex(store).search(query, allowed, offset, limit);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.similar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.TrailRequest;
+
+/**
+ * The parameters of a /trails/{AccessID}/similar or /trails/similar
+ * request:
+ * <ul>
+ * <li>k - number of similar trails to return, 10 by default and at most 50</li>
+ * <li>liked - comma separated AccessIDs of the trails to find similar ones for, /trails/similar only</li>
+ * </ul>
+ * fields and format work as they do for /trails. The trails can not be
+ * filtered, and offset and limit are ignored.
+ *
+ * @author Kniggit
+ */
+public class SimilarRequest {
+
+    public static final String K = "k";
+    public static final String LIKED = "liked";
+
+    /** Most trails that can be liked at once */
+    public static final int MAX_LIKED = 100;
+
+    private static final int DEFAULT_K = 10;
+
+    private final int k;
+    private final List<String> liked;
+    private final TrailRequest trailRequest;
+
+    private SimilarRequest(int k, List<String> liked, TrailRequest trailRequest) {
+        this.k = k;
+        this.liked = liked;
+        this.trailRequest = trailRequest;
+    }
+
+    /**
+     * Splits the request parameters into k, the liked trails and the
+     * response options
+     * @param params
+     * @param defaultFormat Format used when there is no format parameter, may be null
+     * @return
+     * @throws IllegalArgumentException If a parameter is not valid
+     */
+    public static SimilarRequest of(MultiValueMap<String, String> params, TrailRequest.Format defaultFormat) {
+        MultiValueMap<String, String> options = new LinkedMultiValueMap<String, String>(params);
+        List<String> k = options.remove(K);
+        List<String> likedValues = options.remove(LIKED);
+        TrailRequest trailRequest = TrailRequest.of(options, defaultFormat);
+        if(!trailRequest.getFilters().isEmpty()) {
+            throw new IllegalArgumentException("Similar trails can not be filtered by "
+                    + String.join(", ", trailRequest.getFilters().keySet()));
+        }
+
+        List<String> liked = new ArrayList<String>();
+        for(int i = 0; likedValues != null && i < likedValues.size(); i++) {
+            for(String accessId : likedValues.get(i).split(",")) {
+                if(!accessId.trim().isEmpty() && !liked.contains(accessId.trim())) {
+                    liked.add(accessId.trim());
+                }
+            }
+        }
+        if(liked.size() > MAX_LIKED) {
+            throw new IllegalArgumentException("At most " + MAX_LIKED + " trails can be liked");
+        }
+        return new SimilarRequest(parseK(k == null ? null : k.get(0)), liked, trailRequest);
+    }
+
+    private static int parseK(String value) {
+        if(value == null) {
+            return DEFAULT_K;
+        }
+        try {
+            int k = Integer.parseInt(value.trim());
+            if(k < 1 || k > SimilarityIndex.MAX_K) {
+                throw new IllegalArgumentException(K + " must be between 1 and " + SimilarityIndex.MAX_K);
+            }
+            return k;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(K + " must be a number");
+        }
+    }
+
+    /**
+     * Number of similar trails to return
+     * @return
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * AccessIDs of the liked trails, empty if there are none
+     * @return
+     */
+    public List<String> getLiked() {
+        return liked;
+    }
+
+    /**
+     * Attributes to return for each trail, or null for all of them
+     * @return
+     */
+    public List<String> getFields() {
+        return trailRequest.getFields();
+    }
+
+    /**
+     * Format of the response
+     * @return
+     */
+    public TrailRequest.Format getFormat() {
+        return trailRequest.getFormat();
+    }
+
+    /**
+     * Content type of the response
+     * @return
+     */
+    public String getContentType() {
+        return trailRequest.getContentType();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.similar;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * The most similar trails of every trail of one TrailStore.
+ *
+ * Two trails are as similar as the Jaccard index of their feature vectors
+ * (see {@link TrailFeatures}): the number of features they share divided
+ * by the number of features either of them has. A trail is similar to a
+ * set of trails by the summed shared features over the summed features of
+ * every pair. The liked trails are added up into bit planes, bit p of the
+ * count of every feature, so a candidate is scored with one AND and
+ * popcount per word and plane instead of once per liked trail.
+ *
+ * Trails with the same amenities have the same vector and are only scored
+ * once. When there are at most MAX_PRECOMPUTED distinct vectors, the
+ * MAX_K + 1 most similar trails of every vector are ranked in parallel
+ * while the index is built, so finding the similar trails of a trail is an
+ * array lookup. Otherwise they are ranked on request, like the trails
+ * similar to a set.
+ *
+ * Ties are ranked by the first row of their vector, then by row.
+ *
+ * @author Kniggit
+ */
+public final class SimilarityIndex {
+
+    /** Most similar trails that can be asked for */
+    public static final int MAX_K = 50;
+    /** Most distinct vectors the similar trails are precomputed for */
+    static final int MAX_PRECOMPUTED = 10000;
+
+    private final TrailStore store;
+    private final TrailFeatures features;
+    private final int words;
+    private final long[] vectors;
+    private final int[] vectorCounts;
+    private final int[] vectorOf;
+    private final int[] memberOffsets;
+    private final int[] members;
+    private final int[][] neighbours;
+
+    private SimilarityIndex(TrailStore store, TrailFeatures features, long[] vectors, int[] vectorOf,
+            int[] memberOffsets, int[] members, boolean precompute) {
+        this.store = store;
+        this.features = features;
+        this.words = features.getWords();
+        this.vectors = vectors;
+        this.vectorOf = vectorOf;
+        this.memberOffsets = memberOffsets;
+        this.members = members;
+        this.vectorCounts = new int[memberOffsets.length - 1];
+        for(int vector = 0; vector < vectorCounts.length; vector++) {
+            vectorCounts[vector] = bitCount(vectors, vector * words, words);
+        }
+
+        if(precompute) {
+            // Every vector ranks all vectors, which is the bulk of the work
+            int[][] ranked = new int[vectorCounts.length][];
+            IntStream.range(0, ranked.length).parallel().forEach(vector -> ranked[vector] =
+                    expand(rank(Arrays.copyOfRange(vectors, vector * words, (vector + 1) * words), 1,
+                            vectorCounts[vector], MAX_K + 1), MAX_K + 1, null));
+            this.neighbours = ranked;
+        } else {
+            this.neighbours = null;
+        }
+    }
+
+    /**
+     * Builds the index of the store, ranking the similar trails of every
+     * trail when the store is small enough
+     * @param store
+     * @return
+     */
+    public static SimilarityIndex of(TrailStore store) {
+        return of(store, MAX_PRECOMPUTED);
+    }
+
+    /**
+     * @param store
+     * @param maxPrecomputed Most distinct vectors the similar trails are precomputed for
+     * @return
+     */
+    static SimilarityIndex of(TrailStore store, int maxPrecomputed) {
+        TrailFeatures features = TrailFeatures.of(store);
+        int words = features.getWords();
+        long[] bits = features.getBits();
+
+        // Number the distinct vectors by their first row
+        Map<Vector, Integer> distinct = new HashMap<Vector, Integer>();
+        int[] vectorOf = new int[store.size()];
+        for(int row = 0; row < store.size(); row++) {
+            Integer vector = distinct.putIfAbsent(new Vector(bits, row * words, words), distinct.size());
+            vectorOf[row] = vector == null ? distinct.size() - 1 : vector;
+        }
+        long[] vectors = new long[distinct.size() * words];
+        for(Map.Entry<Vector, Integer> vector : distinct.entrySet()) {
+            System.arraycopy(bits, vector.getKey().offset, vectors, vector.getValue() * words, words);
+        }
+
+        // Group the rows by vector, in row order
+        int[] memberOffsets = new int[distinct.size() + 1];
+        for(int vector : vectorOf) {
+            memberOffsets[vector + 1]++;
+        }
+        for(int vector = 0; vector < distinct.size(); vector++) {
+            memberOffsets[vector + 1] += memberOffsets[vector];
+        }
+        int[] members = new int[store.size()];
+        int[] next = Arrays.copyOf(memberOffsets, distinct.size());
+        for(int row = 0; row < store.size(); row++) {
+            members[next[vectorOf[row]]++] = row;
+        }
+        return new SimilarityIndex(store, features, vectors, vectorOf, memberOffsets, members,
+                distinct.size() <= maxPrecomputed);
+    }
+
+    /**
+     * Store the index was built from
+     * @return
+     */
+    public TrailStore getStore() {
+        return store;
+    }
+
+    /**
+     * Feature vectors of the trails
+     * @return
+     */
+    public TrailFeatures getFeatures() {
+        return features;
+    }
+
+    /**
+     * Checks whether the similar trails of every trail were ranked when
+     * the index was built
+     * @return
+     */
+    public boolean isPrecomputed() {
+        return neighbours != null;
+    }
+
+    /**
+     * Returns the rows of the trails most similar to the trail of the row,
+     * most similar first
+     * @param row
+     * @param k Number of trails to return, at most MAX_K
+     * @return
+     */
+    public int[] similar(int row, int k) {
+        if(neighbours == null) {
+            return similar(new int[] { row }, k);
+        }
+        int[] ranked = neighbours[vectorOf[row]];
+        int[] similar = new int[Math.min(k, store.size() - 1)];
+        int count = 0;
+        for(int i = 0; i < ranked.length && count < similar.length; i++) {
+            if(ranked[i] != row) {
+                similar[count++] = ranked[i];
+            }
+        }
+        return count == similar.length ? similar : Arrays.copyOf(similar, count);
+    }
+
+    /**
+     * Returns the rows of the trails most similar to the trails of the
+     * liked rows together, most similar first. The liked trails are not
+     * returned.
+     * @param liked Distinct rows
+     * @param k Number of trails to return
+     * @return
+     */
+    public int[] similar(int[] liked, int k) {
+        // Count every feature over the liked trails in bit planes: bit p
+        // of the count of a feature is set in plane p
+        int planeCount = 32 - Integer.numberOfLeadingZeros(Math.max(1, liked.length));
+        long[] planes = new long[planeCount * words];
+        long likedFeatures = 0;
+        for(int row : liked) {
+            int offset = vectorOf[row] * words;
+            likedFeatures += vectorCounts[vectorOf[row]];
+            for(int w = 0; w < words; w++) {
+                // Ripple carry add of the vector
+                long carry = vectors[offset + w];
+                for(int p = 0; p < planeCount && carry != 0; p++) {
+                    long plane = planes[p * words + w];
+                    planes[p * words + w] = plane ^ carry;
+                    carry &= plane;
+                }
+            }
+        }
+
+        // Every liked trail takes at most one of the ranked vectors' rows
+        BitSet excluded = new BitSet(store.size());
+        for(int row : liked) {
+            excluded.set(row);
+        }
+        int wanted = Math.min(k, store.size() - excluded.cardinality());
+        return expand(rank(planes, liked.length, likedFeatures, wanted + liked.length), wanted, excluded);
+    }
+
+    /**
+     * Ranks the vectors by their similarity to the counted features
+     * @param planes Bit planes of the feature counts, getWords() longs per plane
+     * @param liked Number of trails counted
+     * @param likedFeatures Number of features of the counted trails
+     * @param limit Number of vectors to return
+     * @return The most similar vectors, most similar first
+     */
+    private int[] rank(long[] planes, int liked, long likedFeatures, int limit) {
+        int planeCount = planes.length / words;
+        double[] scores = new double[vectorCounts.length];
+        for(int vector = 0; vector < scores.length; vector++) {
+            int offset = vector * words;
+            long shared = 0;
+            for(int p = 0; p < planeCount; p++) {
+                int planeOffset = p * words;
+                long count = 0;
+                for(int w = 0; w < words; w++) {
+                    count += Long.bitCount(vectors[offset + w] & planes[planeOffset + w]);
+                }
+                shared += count << p;
+            }
+            // Summed over the pairs, |A or B| = |A| + |B| - |A and B|
+            long union = (long)liked * vectorCounts[vector] + likedFeatures - shared;
+            scores[vector] = union == 0 ? 0 : (double)shared / union;
+        }
+
+        // Keep the best vectors in a heap with the worst of them on top
+        int[] heap = new int[Math.min(limit, scores.length)];
+        int size = 0;
+        for(int vector = 0; vector < scores.length && heap.length > 0; vector++) {
+            if(size < heap.length) {
+                heap[size] = vector;
+                siftUp(heap, size++, scores);
+            } else if(isBetter(vector, heap[0], scores)) {
+                heap[0] = vector;
+                siftDown(heap, size, scores);
+            }
+        }
+
+        // Taking the worst off the top ranks them best first
+        int[] ranked = new int[size];
+        for(int i = size - 1; i >= 0; i--) {
+            ranked[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, i, scores);
+        }
+        return ranked;
+    }
+
+    /**
+     * Checks whether vector a ranks before vector b: it scores higher, or
+     * the same with a lower number
+     */
+    private static boolean isBetter(int a, int b, double[] scores) {
+        return scores[a] > scores[b] || scores[a] == scores[b] && a < b;
+    }
+
+    private static void siftUp(int[] heap, int index, double[] scores) {
+        int vector = heap[index];
+        while(index > 0 && isBetter(heap[(index - 1) >>> 1], vector, scores)) {
+            heap[index] = heap[(index - 1) >>> 1];
+            index = (index - 1) >>> 1;
+        }
+        heap[index] = vector;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        int index = 0;
+        int vector = heap[0];
+        while(2 * index + 1 < size) {
+            int child = 2 * index + 1;
+            if(child + 1 < size && isBetter(heap[child], heap[child + 1], scores)) {
+                child++;
+            }
+            if(!isBetter(vector, heap[child], scores)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = vector;
+    }
+
+    /**
+     * Returns the rows of the ranked vectors, in rank and then row order
+     * @param ranked
+     * @param limit Number of rows to return
+     * @param excluded Rows not to return, may be null
+     * @return
+     */
+    private int[] expand(int[] ranked, int limit, BitSet excluded) {
+        int[] rows = new int[limit];
+        int count = 0;
+        for(int i = 0; i < ranked.length && count < limit; i++) {
+            for(int m = memberOffsets[ranked[i]]; m < memberOffsets[ranked[i] + 1] && count < limit; m++) {
+                if(excluded == null || !excluded.get(members[m])) {
+                    rows[count++] = members[m];
+                }
+            }
+        }
+        return count == limit ? rows : Arrays.copyOf(rows, count);
+    }
+
+    private static int bitCount(long[] bits, int offset, int words) {
+        int count = 0;
+        for(int w = 0; w < words; w++) {
+            count += Long.bitCount(bits[offset + w]);
+        }
+        return count;
+    }
+
+    /**
+     * Key of the vector of a row in the shared array of all vectors
+     */
+    private static final class Vector {
+        private final long[] bits;
+        private final int offset;
+        private final int words;
+        private final int hash;
+
+        Vector(long[] bits, int offset, int words) {
+            this.bits = bits;
+            this.offset = offset;
+            this.words = words;
+            int hash = 1;
+            for(int w = 0; w < words; w++) {
+                hash = 31 * hash + Long.hashCode(bits[offset + w]);
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Vector)) {
+                return false;
+            }
+            Vector vector = (Vector)other;
+            for(int w = 0; w < words; w++) {
+                if(bits[offset + w] != vector.bits[vector.offset + w]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
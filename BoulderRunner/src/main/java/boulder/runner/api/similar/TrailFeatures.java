@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.similar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * The amenities of every trail of one TrailStore as a bit vector, packed
+ * into longs so vectors are compared a word at a time with
+ * Long.bitCount.
+ *
+ * Every value of the CATEGORIES attributes is a feature, i.e. Fee=Yes or
+ * Class=T3. The NUMBERS attributes have a feature for every level they
+ * reach, i.e. ParkSpaces&gt;=10 for a trail head with 12 parking spaces,
+ * so trail heads of about the same size share most of them. Blank values
+ * and attributes the trails do not have are not features.
+ *
+ * @author Kniggit
+ */
+public final class TrailFeatures {
+
+    /** Attributes whose values are features */
+    public static final List<String> CATEGORIES = Collections.unmodifiableList(Arrays.asList("Class",
+            "AccessType", "Fee", "BikeRack", "BikeTrail", "HorseTrail", "THLeash", "DogCompost", "RESTROOMS",
+            "PICNIC", "Grills", "FISHING", "RecycleBin", "ADAfacilit", "ADAparking", "ADAtoilet", "ADApicnic",
+            "ADAtrail", "ADAsurface", "ADAfishing", "ADAcamping"));
+
+    /** Numeric attributes and the levels that are features */
+    public static final Map<String, double[]> NUMBERS;
+    static {
+        Map<String, double[]> numbers = new LinkedHashMap<String, double[]>();
+        numbers.put("ParkSpaces", new double[] { 1, 5, 10, 20, 50, 100 });
+        numbers.put("TrashCans", new double[] { 1, 2, 4, 8 });
+        numbers.put("DogTube", new double[] { 1, 2 });
+        NUMBERS = Collections.unmodifiableMap(numbers);
+    }
+
+    // Attributes with more values are names rather than categories
+    private static final int MAX_VALUES = 64;
+
+    private final List<String> names;
+    private final int words;
+    private final long[] bits;
+
+    private TrailFeatures(List<String> names, int words, long[] bits) {
+        this.names = names;
+        this.words = words;
+        this.bits = bits;
+    }
+
+    /**
+     * Builds the feature vectors of all trails of the store
+     * @param store
+     * @return
+     */
+    public static TrailFeatures of(TrailStore store) {
+        List<String> names = new ArrayList<String>();
+
+        // Number the features of every attribute the trails have
+        List<TrailColumn> categories = new ArrayList<TrailColumn>();
+        List<int[]> valueFeatures = new ArrayList<int[]>();
+        for(String attribute : CATEGORIES) {
+            TrailColumn column = store.getColumn(attribute);
+            if(column == null || column.getCardinality() > MAX_VALUES) {
+                continue;
+            }
+            int[] features = new int[column.getCardinality()];
+            for(int code = 0; code < features.length; code++) {
+                String value = column.getValue(code);
+                features[code] = value == null || value.trim().isEmpty() ? -1 : names.size();
+                if(features[code] >= 0) {
+                    names.add(attribute + "=" + value.trim());
+                }
+            }
+            categories.add(column);
+            valueFeatures.add(features);
+        }
+
+        List<TrailColumn> numbers = new ArrayList<TrailColumn>();
+        List<double[]> levels = new ArrayList<double[]>();
+        List<Integer> levelFeatures = new ArrayList<Integer>();
+        for(Entry<String, double[]> number : NUMBERS.entrySet()) {
+            TrailColumn column = store.getColumn(number.getKey());
+            if(column == null) {
+                continue;
+            }
+            numbers.add(column);
+            levels.add(number.getValue());
+            levelFeatures.add(names.size());
+            for(double level : number.getValue()) {
+                names.add(number.getKey() + ">=" + (long)level);
+            }
+        }
+
+        // Set the features of every trail
+        int words = Math.max(1, (names.size() + 63) >>> 6);
+        long[] bits = new long[store.size() * words];
+        for(int row = 0; row < store.size(); row++) {
+            int offset = row * words;
+            for(int i = 0; i < categories.size(); i++) {
+                int code = categories.get(i).getCode(row);
+                int feature = code == TrailColumn.MISSING ? -1 : valueFeatures.get(i)[code];
+                if(feature >= 0) {
+                    bits[offset + (feature >>> 6)] |= 1L << feature;
+                }
+            }
+            for(int i = 0; i < numbers.size(); i++) {
+                int code = numbers.get(i).getCode(row);
+                double value = code == TrailColumn.MISSING ? Double.NaN : numbers.get(i).getNumber(code);
+                // NaN is not above any level
+                for(int level = 0; level < levels.get(i).length && value >= levels.get(i)[level]; level++) {
+                    int feature = levelFeatures.get(i) + level;
+                    bits[offset + (feature >>> 6)] |= 1L << feature;
+                }
+            }
+        }
+        return new TrailFeatures(Collections.unmodifiableList(names), words, bits);
+    }
+
+    /**
+     * Names of the features, i.e. Fee=Yes or ParkSpaces&gt;=10, by feature
+     * number
+     * @return
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Number of longs holding the vector of a trail
+     * @return
+     */
+    public int getWords() {
+        return words;
+    }
+
+    /**
+     * Vectors of all trails, the vector of a row starts at row * getWords().
+     * NOTE: The array is shared, callers must not modify it.
+     * @return
+     */
+    long[] getBits() {
+        return bits;
+    }
+
+    /**
+     * Checks whether the trail of the row has the feature
+     * @param row
+     * @param feature
+     * @return
+     */
+    public boolean hasFeature(int row, int feature) {
+        return (bits[row * words + (feature >>> 6)] & 1L << feature) != 0;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.similar;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Keeps the {@link SimilarityIndex} of the store being served. Registered
+ * as a publish listener of the TrailRepository, so the similar trails of
+ * new trail data are ranked while it is loaded. A store that was never
+ * published (i.e. in tests) gets its index built on first use.
+ *
+ * Trails are identified by their AccessID.
+ *
+ * @author Kniggit
+ */
+public class TrailRecommender {
+
+    /** Attribute identifying the trails */
+    public static final String ACCESS_ID = "AccessID";
+
+    private final AtomicReference<SimilarityIndex> index = new AtomicReference<SimilarityIndex>();
+
+    /**
+     * Returns the index of the given store, building it if needed
+     * @param store
+     * @return
+     */
+    public SimilarityIndex getIndex(TrailStore store) {
+        SimilarityIndex current = index.get();
+        if(current == null || current.getStore() != store) {
+            current = SimilarityIndex.of(store);
+            index.set(current);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the rows of the trails most similar to the trail, most
+     * similar first
+     * @param store
+     * @param accessId
+     * @param k Number of trails to return
+     * @return
+     * @throws NoSuchElementException If no trail has the AccessID
+     */
+    public int[] similar(TrailStore store, String accessId, int k) {
+        return getIndex(store).similar(getRow(store, accessId), k);
+    }
+
+    /**
+     * Returns the rows of the trails most similar to all liked trails,
+     * most similar first. The liked trails are not returned.
+     * @param store
+     * @param liked Distinct AccessIDs
+     * @param k Number of trails to return
+     * @return
+     * @throws NoSuchElementException If no trail has one of the AccessIDs
+     */
+    public int[] similar(TrailStore store, List<String> liked, int k) {
+        int[] rows = new int[liked.size()];
+        for(int i = 0; i < rows.length; i++) {
+            rows[i] = getRow(store, liked.get(i));
+        }
+        return getIndex(store).similar(rows, k);
+    }
+
+    private static int getRow(TrailStore store, String accessId) {
+        TrailColumn column = store.getColumn(ACCESS_ID);
+        int code = column == null ? TrailColumn.MISSING : column.getCode(accessId);
+        if(code == TrailColumn.MISSING) {
+            throw new NoSuchElementException("No trail has AccessID " + accessId);
+        }
+        return column.getFirstRow(code);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact on disk copy of a TrailStore, so the service can start serving
+ * trails straight away without downloading and parsing the CSV.
+ *
+ * The file is laid out as:
+ * <pre>
+ * header     magic, version, source Last-Modified and ETag, trail count
+ * dictionary per column: name and distinct values
+ * columns    per column: codes, posting offsets and postings (ints)
+ * trails     row offsets (ints) and every trail encoded as UTF-8 JSON
+ * </pre>
+ * The dictionaries are read onto the heap, everything else is used straight
+ * from the memory mapped file.
+ *
+ * The ETag takes a fixed MAX_ETAG_BYTES, so the caching headers of an
+ * unchanged source can be updated in place (see writeValidators). Longer
+ * ETags are not kept.
+ *
+ * @author Kniggit
+ */
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x42525453;
+    private static final int VERSION = 2;
+    /** Longest ETag that is kept, in UTF-8 bytes */
+    static final int MAX_ETAG_BYTES = 256;
+    // Position of the caching headers, after the magic and the version
+    private static final int VALIDATORS_OFFSET = 2 * Integer.BYTES;
+
+    private final Path path;
+
+    /**
+     * @param path Location of the snapshot file
+     */
+    public SnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Location of the snapshot file
+     * @return
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Checks whether a snapshot has been written
+     * @return
+     */
+    public boolean exists() {
+        return Files.isRegularFile(path);
+    }
+
+    /**
+     * Writes the store to the snapshot file. The file is replaced at once,
+     * so a snapshot that is being read or is mapped is never half written.
+     * @param store
+     * @param etag ETag of the source the store was loaded from, may be null
+     * @param lastModified Last-Modified time of the source, 0 if unknown
+     * @throws IOException
+     */
+    public void write(TrailStore store, String etag, long lastModified) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(encodeValidators(etag, lastModified).array());
+                out.writeInt(store.size());
+                out.writeInt(store.getColumns().size());
+                for(TrailColumn column : store.getColumns().values()) {
+                    writeString(out, column.getName());
+                    String[] dictionary = column.getDictionary();
+                    out.writeInt(dictionary.length);
+                    for(String value : dictionary) {
+                        writeString(out, value);
+                    }
+                }
+
+                // Align the int sections so they can be viewed as IntBuffers
+                while(out.size() % Integer.BYTES != 0) {
+                    out.writeByte(0);
+                }
+                for(TrailColumn column : store.getColumns().values()) {
+                    writeInts(out, column.getCodes());
+                    writeInts(out, column.getPostingOffsets());
+                    writeInts(out, column.getPostings());
+                }
+                writeInts(out, store.getRowOffsets());
+                ByteBuffer encodedRows = store.getEncodedRows();
+                byte[] chunk = new byte[8192];
+                while(encodedRows.hasRemaining()) {
+                    int length = Math.min(chunk.length, encodedRows.remaining());
+                    encodedRows.get(chunk, 0, length);
+                    out.write(chunk, 0, length);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Replaces the caching headers of the snapshot without rewriting the
+     * trails, for a source that was downloaded again but did not change
+     * @param etag ETag of the source, may be null
+     * @param lastModified Last-Modified time of the source, 0 if unknown
+     * @throws IOException If the file is missing or was written by another version
+     */
+    public void writeValidators(String etag, long lastModified) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(VALIDATORS_OFFSET);
+            while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Read the whole header
+            }
+            header.flip();
+            if(header.remaining() < VALIDATORS_OFFSET || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + " is not a trail snapshot of version " + VERSION);
+            }
+            ByteBuffer validators = encodeValidators(etag, lastModified);
+            while(validators.hasRemaining()) {
+                channel.write(validators, VALIDATORS_OFFSET + validators.position());
+            }
+        }
+    }
+
+    /**
+     * Encodes the Last-Modified time and the ETag, padded to
+     * MAX_ETAG_BYTES
+     */
+    private static ByteBuffer encodeValidators(String etag, long lastModified) {
+        byte[] bytes = etag == null ? new byte[0] : etag.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > MAX_ETAG_BYTES) {
+            // The source is downloaded once more on startup
+            bytes = new byte[0];
+        }
+        ByteBuffer validators = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + MAX_ETAG_BYTES);
+        validators.putLong(lastModified);
+        validators.putInt(bytes.length);
+        validators.put(bytes);
+        validators.position(0);
+        return validators;
+    }
+
+    /**
+     * Memory maps the snapshot file and returns its contents
+     * @return
+     * @throws IOException If the file is missing, was written by another version or is corrupt
+     */
+    public Contents read() throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if(buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a trail snapshot");
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                throw new IOException(path + " has unsupported snapshot version " + version);
+            }
+            long lastModified = buffer.getLong();
+            byte[] etagBytes = new byte[buffer.getInt()];
+            buffer.get(etagBytes);
+            buffer.position(buffer.position() + MAX_ETAG_BYTES - etagBytes.length);
+            String etag = new String(etagBytes, StandardCharsets.UTF_8);
+            int size = buffer.getInt();
+            int columnCount = buffer.getInt();
+            String[] names = new String[columnCount];
+            String[][] dictionaries = new String[columnCount][];
+            for(int i = 0; i < columnCount; i++) {
+                names[i] = readString(buffer);
+                dictionaries[i] = new String[buffer.getInt()];
+                for(int code = 0; code < dictionaries[i].length; code++) {
+                    dictionaries[i][code] = readString(buffer);
+                }
+            }
+
+            buffer.position((buffer.position() + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES);
+            Map<String, TrailColumn> columns = new LinkedHashMap<String, TrailColumn>();
+            for(int i = 0; i < columnCount; i++) {
+                IntBuffer codes = readInts(buffer, size);
+                IntBuffer postingOffsets = readInts(buffer, dictionaries[i].length + 1);
+                IntBuffer postings = readInts(buffer, postingOffsets.get(dictionaries[i].length));
+                columns.put(names[i], new TrailColumn(names[i], dictionaries[i], codes, postingOffsets, postings));
+            }
+            IntBuffer rowOffsets = readInts(buffer, size + 1);
+            ByteBuffer encodedRows = buffer.slice();
+            encodedRows.limit(rowOffsets.get(size));
+
+            TrailStore store = new TrailStore(null, size, columns, rowOffsets, encodedRows);
+            return new Contents(store, etag.isEmpty() ? null : etag, lastModified);
+        } catch (RuntimeException e) {
+            // Buffer under/overflows mean the file was truncated or corrupted
+            throw new IOException(path + " is not a valid trail snapshot", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer ints) throws IOException {
+        while(ints.hasRemaining()) {
+            out.writeInt(ints.get());
+        }
+    }
+
+    private static IntBuffer readInts(ByteBuffer buffer, int count) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(count * Integer.BYTES);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return slice.asIntBuffer();
+    }
+
+    /**
+     * A store read from a snapshot file along with the caching headers
+     * of the source it was originally loaded from
+     */
+    public static class Contents {
+        private final TrailStore store;
+        private final String etag;
+        private final long lastModified;
+
+        Contents(TrailStore store, String etag, long lastModified) {
+            this.store = store;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public TrailStore getStore() {
+            return store;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
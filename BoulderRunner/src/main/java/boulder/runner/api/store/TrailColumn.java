@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+/**
+ * A single dictionary encoded trail attribute (e.g. Fee, Class, AccessType).
+ *
+ * Every distinct value of the attribute is stored once in the dictionary
+ * and every trail only stores the index (code) of its value. For every
+ * code the rows holding that value are kept as a sorted posting list, from
+ * which the bitmap used for searching is built. Bitmaps of common values
+ * are kept once built, rare values (i.e. an Address) are built on demand.
+ *
+ * The codes and posting lists are IntBuffers so they can live on the heap
+ * or in a memory mapped snapshot file.
+ *
+ * @author Kniggit
+ */
+public final class TrailColumn {
+
+    /** Code used for trails that do not have this attribute at all */
+    public static final int MISSING = -1;
+
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)");
+    // i.e. 2016-06-01, 2016/06/01 or 2016/06/01 00:00:00+00
+    private static final Pattern DATE = Pattern.compile(
+            "(\\d{4})[-/](\\d{1,2})[-/](\\d{1,2})(?:[ T](\\d{1,2}):(\\d{2})(?::(\\d{2}))?)?.*");
+
+    private final String name;
+    private final int size;
+    private final String[] dictionary;
+    private final Map<String, Integer> codesByValue;
+    private final IntBuffer codes;
+    private final IntBuffer postingOffsets;
+    private final IntBuffer postings;
+    private final AtomicReferenceArray<BitSet> bitmaps;
+    private final AtomicReferenceArray<byte[]> encodedValues;
+    private volatile double[] numbers;
+
+    /**
+     * @param name Attribute name
+     * @param dictionary Distinct values, indexed by code
+     * @param codes Code of every row, MISSING if the row has no value
+     * @param postingOffsets Start of the posting list of every code, plus the end of the last one
+     * @param postings Rows of every code, sorted by code and then row
+     */
+    TrailColumn(String name, String[] dictionary, IntBuffer codes, IntBuffer postingOffsets, IntBuffer postings) {
+        this.name = name;
+        this.size = codes.limit();
+        this.dictionary = dictionary;
+        this.codes = codes;
+        this.postingOffsets = postingOffsets;
+        this.postings = postings;
+        this.bitmaps = new AtomicReferenceArray<BitSet>(dictionary.length);
+        this.encodedValues = new AtomicReferenceArray<byte[]>(dictionary.length);
+        this.codesByValue = new HashMap<String, Integer>(dictionary.length * 2);
+        for(int code = 0; code < dictionary.length; code++) {
+            codesByValue.put(dictionary[code], code);
+        }
+    }
+
+    /**
+     * Name of the trail attribute this column holds
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of distinct values of this attribute
+     * @return
+     */
+    public int getCardinality() {
+        return dictionary.length;
+    }
+
+    /**
+     * Returns the dictionary value for the given code
+     * @param code
+     * @return
+     */
+    public String getValue(int code) {
+        return dictionary[code];
+    }
+
+    /**
+     * Returns the dictionary value for the given code encoded as a
+     * UTF-8 JSON string. Every value is only encoded once.
+     * NOTE: The returned array is shared, callers must not modify it.
+     * @param code
+     * @return
+     */
+    public byte[] getEncodedValue(int code) {
+        byte[] encoded = encodedValues.get(code);
+        if(encoded == null) {
+            encoded = JSONObject.quote(dictionary[code]).getBytes(StandardCharsets.UTF_8);
+            encodedValues.compareAndSet(code, null, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the dictionary value for the given code as a number (see
+     * {@link #toNumber(String)}). Every value is only parsed once.
+     * @param code
+     * @return
+     */
+    public double getNumber(int code) {
+        double[] parsed = numbers;
+        if(parsed == null) {
+            // Racing threads parse the same values, which is harmless
+            parsed = new double[dictionary.length];
+            for(int i = 0; i < dictionary.length; i++) {
+                parsed[i] = toNumber(dictionary[i]);
+            }
+            numbers = parsed;
+        }
+        return parsed[code];
+    }
+
+    /**
+     * Converts an attribute value to a number so it can be compared as one.
+     * Dates (i.e. DateFrom and DateTo) become milliseconds since the epoch
+     * in UTC. Values that are neither become NaN.
+     * @param value
+     * @return
+     */
+    public static double toNumber(String value) {
+        String trimmed = value.trim();
+        if(NUMBER.matcher(trimmed).matches()) {
+            return Double.parseDouble(trimmed);
+        }
+        Matcher date = DATE.matcher(trimmed);
+        if(date.matches()) {
+            try {
+                LocalDateTime time = LocalDateTime.of(Integer.parseInt(date.group(1)),
+                        Integer.parseInt(date.group(2)), Integer.parseInt(date.group(3)),
+                        date.group(4) == null ? 0 : Integer.parseInt(date.group(4)),
+                        date.group(5) == null ? 0 : Integer.parseInt(date.group(5)),
+                        date.group(6) == null ? 0 : Integer.parseInt(date.group(6)));
+                return time.toEpochSecond(ZoneOffset.UTC) * 1000.0;
+            } catch (DateTimeException e) {
+                // i.e. month 13, not a date after all
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Returns the code of the given value or MISSING if no trail has it
+     * @param value
+     * @return
+     */
+    public int getCode(String value) {
+        Integer code = codesByValue.get(value);
+        return code == null ? MISSING : code;
+    }
+
+    /**
+     * Returns the code stored for the given trail row
+     * @param row
+     * @return
+     */
+    public int getCode(int row) {
+        return codes.get(row);
+    }
+
+    /**
+     * Returns the number of trails holding the given code
+     * @param code
+     * @return
+     */
+    public int getCount(int code) {
+        return postingOffsets.get(code + 1) - postingOffsets.get(code);
+    }
+
+    /**
+     * Checks whether no two trails hold the same value, i.e. the column
+     * can be used to identify trails
+     * @return
+     */
+    public boolean isUnique() {
+        return postingOffsets.get(dictionary.length) == dictionary.length;
+    }
+
+    /**
+     * Returns the first row holding the given code
+     * @param code
+     * @return
+     */
+    public int getFirstRow(int code) {
+        return postings.get(postingOffsets.get(code));
+    }
+
+    /**
+     * Returns the bitmap of all trails holding the given code.
+     * NOTE: The returned bitmap may be shared, callers must not modify it.
+     * @param code
+     * @return
+     */
+    public BitSet getBitmap(int code) {
+        BitSet bitmap = bitmaps.get(code);
+        if(bitmap != null) {
+            return bitmap;
+        }
+
+        bitmap = new BitSet(size);
+        for(int i = postingOffsets.get(code), end = postingOffsets.get(code + 1); i < end; i++) {
+            bitmap.set(postings.get(i));
+        }
+
+        // Keep the bitmaps of values held by at least 1 in 64 trails. Rarer
+        // values are cheaper to rebuild than to keep a bitmap around for.
+        if(getCount(code) * 64L >= size) {
+            bitmaps.compareAndSet(code, null, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Sets the rows of all trails holding the given code in the bitmap,
+     * without building a bitmap for the code itself
+     * @param code
+     * @param target
+     */
+    public void addRows(int code, BitSet target) {
+        BitSet bitmap = bitmaps.get(code);
+        if(bitmap != null) {
+            target.or(bitmap);
+            return;
+        }
+        for(int i = postingOffsets.get(code), end = postingOffsets.get(code + 1); i < end; i++) {
+            target.set(postings.get(i));
+        }
+    }
+
+    /**
+     * Returns the rows of all trails holding the given code, in row order
+     * @param code
+     * @return
+     */
+    public int[] getRows(int code) {
+        int start = postingOffsets.get(code);
+        int[] rows = new int[postingOffsets.get(code + 1) - start];
+        for(int i = 0; i < rows.length; i++) {
+            rows[i] = postings.get(start + i);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the bitmap of all trails whose attribute equals the value,
+     * or null if no trail has that value.
+     * NOTE: The returned bitmap may be shared, callers must not modify it.
+     * @param value
+     * @return
+     */
+    public BitSet getBitmap(String value) {
+        int code = getCode(value);
+        return code == MISSING ? null : getBitmap(code);
+    }
+
+    String[] getDictionary() {
+        return dictionary;
+    }
+
+    IntBuffer getCodes() {
+        return codes.duplicate();
+    }
+
+    IntBuffer getPostingOffsets() {
+        return postingOffsets.duplicate();
+    }
+
+    IntBuffer getPostings() {
+        return postings.duplicate();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the TrailStore currently being served.
+ *
+ * Stores are immutable, so publishing new trail data is a single atomic
+ * reference swap. Readers never lock and always see a complete snapshot.
+ *
+ * Indexes derived from a store (i.e. the search index) register a publish
+ * listener, which is handed every store before it is served. That way
+ * they are built by the thread loading the trails instead of the first
+ * request.
+ *
+ * @author Kniggit
+ */
+@Component
+public class TrailRepository {
+
+    private final AtomicReference<TrailStore> current = new AtomicReference<TrailStore>(TrailStore.empty());
+    private final List<Consumer<TrailStore>> listeners = new CopyOnWriteArrayList<Consumer<TrailStore>>();
+
+    /**
+     * Returns the store currently being served
+     * @return
+     */
+    public TrailStore current() {
+        return current.get();
+    }
+
+    /**
+     * Replaces the store being served
+     * @param store
+     */
+    public void publish(TrailStore store) {
+        prepare(store);
+        current.set(store);
+    }
+
+    /**
+     * Replaces the store being served only if it is still the expected one
+     * @param expected
+     * @param store
+     * @return true if the store was replaced
+     */
+    public boolean publish(TrailStore expected, TrailStore store) {
+        prepare(store);
+        return current.compareAndSet(expected, store);
+    }
+
+    /**
+     * Registers a listener that is handed every store before it is served
+     * @param listener
+     */
+    public void addPublishListener(Consumer<TrailStore> listener) {
+        listeners.add(listener);
+    }
+
+    private void prepare(TrailStore store) {
+        for(Consumer<TrailStore> listener : listeners) {
+            listener.accept(store);
+        }
+    }
+}
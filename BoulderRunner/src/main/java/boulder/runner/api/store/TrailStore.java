@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Immutable, indexed copy of the trail head data.
+ *
+ * Each trail attribute is kept as a dictionary encoded column with a
+ * bitmap per distinct value (see {@link TrailColumn}). Searching for trails
+ * matching several attributes is a bitmap intersection, and only the
+ * trails that matched are ever touched to build the output. Every trail
+ * is also kept already encoded as UTF-8 JSON, so building the output is
+ * a matter of copying bytes.
+ *
+ * The column data and encoded trails are held in buffers, which are either
+ * on the heap or memory mapped from a {@link SnapshotFile}.
+ *
+ * @author Kniggit
+ */
+public final class TrailStore {
+
+    private static final TrailStore EMPTY = of(new JSONArray());
+
+    private final JSONArray source;
+    private final int size;
+    private final Map<String, TrailColumn> columns;
+    private final IntBuffer rowOffsets;
+    private final ByteBuffer encodedRows;
+
+    /**
+     * @param source JSONArray the store was built from, may be null
+     * @param size Number of trails
+     * @param columns Attribute columns keyed by attribute name
+     * @param rowOffsets Start of every encoded trail, plus the end of the last one
+     * @param encodedRows Every trail encoded as UTF-8 JSON
+     */
+    TrailStore(JSONArray source, int size, Map<String, TrailColumn> columns, IntBuffer rowOffsets,
+            ByteBuffer encodedRows) {
+        this.source = source;
+        this.size = size;
+        this.columns = Collections.unmodifiableMap(columns);
+        this.rowOffsets = rowOffsets;
+        this.encodedRows = encodedRows;
+    }
+
+    /**
+     * Returns a store holding no trails
+     * @return
+     */
+    public static TrailStore empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a store from a JSONArray of trail JSONObjects
+     * @param trails
+     * @return
+     */
+    public static TrailStore of(JSONArray trails) {
+        return new TrailStoreBuilder().build(trails);
+    }
+
+    /**
+     * The JSONArray this store was built from, or null if it was not
+     * built from one (i.e. it was loaded from a snapshot file)
+     * @return
+     */
+    public JSONArray getSource() {
+        return source;
+    }
+
+    /**
+     * Number of trails held in the store
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the column for the given attribute, or null if no trail
+     * has that attribute
+     * @param attribute
+     * @return
+     */
+    public TrailColumn getColumn(String attribute) {
+        return columns.get(attribute);
+    }
+
+    /**
+     * All attribute columns keyed by attribute name
+     * @return
+     */
+    public Map<String, TrailColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the trail stored at the given row
+     * @param row
+     * @return
+     */
+    public JSONObject getTrail(int row) {
+        if(source != null) {
+            return source.getJSONObject(row);
+        }
+        ByteBuffer trail = getEncodedTrail(row);
+        byte[] bytes = new byte[trail.remaining()];
+        trail.get(bytes);
+        return new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the trail stored at the given row already encoded as
+     * UTF-8 JSON, as a read only buffer.
+     * @param row
+     * @return
+     */
+    public ByteBuffer getEncodedTrail(int row) {
+        ByteBuffer trail = encodedRows.asReadOnlyBuffer();
+        trail.limit(rowOffsets.get(row + 1)).position(rowOffsets.get(row));
+        return trail.slice();
+    }
+
+    /**
+     * Writes the trail stored at the given row, encoded as UTF-8 JSON,
+     * to the output stream
+     * @param row
+     * @param out
+     * @throws IOException
+     */
+    public void writeTrail(int row, OutputStream out) throws IOException {
+        int start = rowOffsets.get(row);
+        int length = rowOffsets.get(row + 1) - start;
+        if(encodedRows.hasArray()) {
+            out.write(encodedRows.array(), encodedRows.arrayOffset() + start, length);
+        } else {
+            // Memory mapped, copy the trail out of the mapping
+            byte[] trail = new byte[length];
+            ByteBuffer trails = encodedRows.duplicate();
+            trails.position(start);
+            trails.get(trail);
+            out.write(trail);
+        }
+    }
+
+    /**
+     * Builds a JSONArray holding the trails of the given rows, in row order
+     * @param matches
+     * @return
+     */
+    public JSONArray toJSONArray(BitSet matches) {
+        JSONArray results = new JSONArray();
+        for(int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            results.put(getTrail(row));
+        }
+        return results;
+    }
+
+    /**
+     * Encodes the trails of the given rows as a UTF-8 JSON array by
+     * concatenating the pre-encoded trails. The result is byte for byte
+     * the same as toJSONArray(matches).toString().
+     * @param matches
+     * @return
+     */
+    public byte[] encode(BitSet matches) {
+        // Size the output up front so it is only allocated once
+        int length = 2;
+        for(int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            length += rowOffsets.get(row + 1) - rowOffsets.get(row) + 1;
+        }
+        if(length > 2) {
+            length--;
+        }
+
+        byte[] encoded = new byte[length];
+        ByteBuffer trails = encodedRows.duplicate();
+        int position = 0;
+        encoded[position++] = '[';
+        for(int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            if(position > 1) {
+                encoded[position++] = ',';
+            }
+            int start = rowOffsets.get(row);
+            int trailLength = rowOffsets.get(row + 1) - start;
+            trails.position(start);
+            trails.get(encoded, position, trailLength);
+            position += trailLength;
+        }
+        encoded[position] = ']';
+        return encoded;
+    }
+
+    /**
+     * Attribute names in the order they were first seen
+     * @return
+     */
+    public List<String> getAttributes() {
+        return new ArrayList<String>(columns.keySet());
+    }
+
+    IntBuffer getRowOffsets() {
+        return rowOffsets.duplicate();
+    }
+
+    ByteBuffer getEncodedRows() {
+        return encodedRows.duplicate();
+    }
+}
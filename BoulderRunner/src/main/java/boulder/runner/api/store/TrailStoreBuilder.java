@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Builds the dictionary encoded columns, posting lists and pre-encoded
+ * JSON of a {@link TrailStore} one trail at a time.
+ *
+ * Repeated values (i.e. "Yes", "No", "TH") are interned through the column
+ * dictionaries and encoded as JSON only once, so adding a trail writes its
+ * codes and JSON straight into the growing column and row buffers.
+ *
+ * @author Kniggit
+ */
+public class TrailStoreBuilder {
+
+    private static final byte[] OPEN_OBJECT = encode("{");
+    private static final byte[] CLOSE_OBJECT = encode("}");
+    private static final byte[] COMMA = encode(",");
+
+    private final Map<String, ColumnBuilder> builders = new LinkedHashMap<String, ColumnBuilder>();
+    private byte[] encodedRows = new byte[4096];
+    private int[] rowOffsets = new int[65];
+    private int size;
+
+    // Columns of the attributes passed to the last addRow call
+    private String[] lastAttributes;
+    private ColumnBuilder[] lastColumns;
+
+    /**
+     * Builds a store from a JSONArray of trail JSONObjects. Only String
+     * attribute values are indexed, which matches how the CSV data is loaded.
+     * @param trails
+     * @return
+     */
+    TrailStore build(JSONArray trails) {
+        for(int i = 0; i < trails.length(); i++) {
+            JSONObject trail = (JSONObject)trails.get(i);
+            int row = addRow(trail.toString().getBytes(StandardCharsets.UTF_8));
+            for(String key : trail.keySet()) {
+                Object value = trail.get(key);
+                if(value instanceof String) {
+                    set(row, key, (String)value);
+                }
+            }
+        }
+        return toStore(trails);
+    }
+
+    /**
+     * Adds a trail and returns its row. The trail is encoded as a JSON
+     * object holding the attributes in the given order.
+     *
+     * Passing the same attributes array for every trail (i.e. the CSV
+     * header) lets the columns be resolved only once.
+     * @param attributes Attribute names
+     * @param values Attribute values, null values are left out
+     * @return
+     */
+    public int addRow(String[] attributes, String[] values) {
+        if(attributes != lastAttributes) {
+            lastColumns = new ColumnBuilder[attributes.length];
+            for(int i = 0; i < attributes.length; i++) {
+                lastColumns[i] = getColumnBuilder(attributes[i]);
+            }
+            lastAttributes = attributes;
+        }
+
+        int row = size;
+        if(row + 2 > rowOffsets.length) {
+            rowOffsets = Arrays.copyOf(rowOffsets, rowOffsets.length * 2);
+        }
+        int position = rowOffsets[row];
+        position = append(position, OPEN_OBJECT);
+        for(int i = 0; i < values.length; i++) {
+            if(values[i] == null) {
+                continue;
+            }
+            ColumnBuilder column = lastColumns[i];
+            int code = column.set(row, values[i]);
+            if(position > rowOffsets[row] + 1) {
+                position = append(position, COMMA);
+            }
+            position = append(position, column.encodedName);
+            position = append(position, column.encodedValues.get(code));
+        }
+        position = append(position, CLOSE_OBJECT);
+        rowOffsets[row + 1] = position;
+        return size++;
+    }
+
+    /**
+     * Builds the store holding every row added so far
+     * @return
+     */
+    public TrailStore build() {
+        return toStore(null);
+    }
+
+    /**
+     * Adds a trail given as UTF-8 encoded JSON and returns its row
+     * @param encoded
+     * @return
+     */
+    int addRow(byte[] encoded) {
+        if(size + 2 > rowOffsets.length) {
+            rowOffsets = Arrays.copyOf(rowOffsets, rowOffsets.length * 2);
+        }
+        rowOffsets[size + 1] = append(rowOffsets[size], encoded);
+        return size++;
+    }
+
+    /**
+     * Sets the value of an attribute of the given row
+     * @param row
+     * @param attribute
+     * @param value
+     */
+    void set(int row, String attribute, String value) {
+        getColumnBuilder(attribute).set(row, value);
+    }
+
+    /**
+     * Builds the store holding every row added so far
+     * @param source JSONArray the rows came from, may be null
+     * @return
+     */
+    TrailStore toStore(JSONArray source) {
+        Map<String, TrailColumn> columns = new LinkedHashMap<String, TrailColumn>();
+        for(ColumnBuilder builder : builders.values()) {
+            columns.put(builder.name, builder.build(size));
+        }
+        return new TrailStore(source, size, columns,
+                IntBuffer.wrap(Arrays.copyOf(rowOffsets, size + 1)),
+                ByteBuffer.wrap(Arrays.copyOf(encodedRows, rowOffsets[size])));
+    }
+
+    private ColumnBuilder getColumnBuilder(String attribute) {
+        ColumnBuilder builder = builders.get(attribute);
+        if(builder == null) {
+            builder = new ColumnBuilder(attribute);
+            builders.put(attribute, builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Appends the bytes to the encoded rows and returns the new end
+     */
+    private int append(int position, byte[] bytes) {
+        if(position + bytes.length > encodedRows.length) {
+            encodedRows = Arrays.copyOf(encodedRows, Math.max(encodedRows.length * 2, position + bytes.length));
+        }
+        System.arraycopy(bytes, 0, encodedRows, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static byte[] encode(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Accumulates the dictionary and codes of one column
+     */
+    private static class ColumnBuilder {
+        private final String name;
+        private final byte[] encodedName;
+        private int[] codes = new int[64];
+        private final Map<String, Integer> codesByValue = new HashMap<String, Integer>();
+        private final List<String> dictionary = new ArrayList<String>();
+        private final List<byte[]> encodedValues = new ArrayList<byte[]>();
+
+        ColumnBuilder(String name) {
+            this.name = name;
+            this.encodedName = encode(JSONObject.quote(name) + ":");
+            Arrays.fill(codes, TrailColumn.MISSING);
+        }
+
+        int set(int row, String value) {
+            Integer code = codesByValue.get(value);
+            if(code == null) {
+                code = dictionary.size();
+                codesByValue.put(value, code);
+                dictionary.add(value);
+                encodedValues.add(encode(JSONObject.quote(value)));
+            }
+            if(row >= codes.length) {
+                int length = codes.length;
+                codes = Arrays.copyOf(codes, Math.max(length * 2, row + 1));
+                Arrays.fill(codes, length, codes.length, TrailColumn.MISSING);
+            }
+            codes[row] = code;
+            return code;
+        }
+
+        TrailColumn build(int size) {
+            int[] rowCodes = Arrays.copyOf(codes, size);
+            if(size > codes.length) {
+                Arrays.fill(rowCodes, codes.length, size, TrailColumn.MISSING);
+            }
+
+            // Counting sort of the rows by code gives every posting list
+            // in row order
+            int[] offsets = new int[dictionary.size() + 1];
+            for(int code : rowCodes) {
+                if(code != TrailColumn.MISSING) {
+                    offsets[code + 1]++;
+                }
+            }
+            for(int code = 0; code < dictionary.size(); code++) {
+                offsets[code + 1] += offsets[code];
+            }
+            int[] postings = new int[offsets[dictionary.size()]];
+            int[] next = Arrays.copyOf(offsets, dictionary.size());
+            for(int row = 0; row < size; row++) {
+                if(rowCodes[row] != TrailColumn.MISSING) {
+                    postings[next[rowCodes[row]]++] = row;
+                }
+            }
+
+            return new TrailColumn(name, dictionary.toArray(new String[0]), IntBuffer.wrap(rowCodes),
+                    IntBuffer.wrap(offsets), IntBuffer.wrap(postings));
+        }
+    }
+}
@@ -19,11 +19,21 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.HttpMediaTypeNotSupportedException;
 
 import boulder.runner.api.BoulderRunnerController;
 
@@ -157,4 +167,292 @@ public class BoulderRunnerControllerTest {
     	// Assert
     	assertEquals(btc.trails(searchParams), expectedResults);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test to verify offset and limit return a page of the matching trails
+     * and are not treated as trail attributes
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void offsetAndLimitShouldReturnPage() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the query parameters
+        Map<String, String> searchParams = new HashMap<String, String>();
+        searchParams.put("BikeTrail", "No");
+        searchParams.put("offset", "1");
+        searchParams.put("limit", "1");
+
+        // Expected trails
+        String expectedResults = "[" + testTrails.getJSONObject(1).toString() + "]";
+
+        // Assert
+        assertEquals(expectedResults, btc.trails(searchParams));
+    }
+
+    /**
+     * Test to verify fields only returns the requested attributes
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void fieldsShouldProjectAttributes() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the query parameters
+        Map<String, String> searchParams = new HashMap<String, String>();
+        searchParams.put("Fee", "No");
+        searchParams.put("fields", "AccessName,Fee,NotAnAttribute");
+
+        // Expected trails
+        String expectedResults = "[{\"AccessName\":\"East Boulder Trail at White Rocks\",\"Fee\":\"No\"},"
+                + "{\"AccessName\":\"Buckingham Park\",\"Fee\":\"No\"}]";
+
+        // Assert
+        assertEquals(expectedResults, btc.trails(searchParams));
+        // Fields asked for twice are only written once
+        searchParams.put("fields", "AccessName,Fee,AccessName, Fee");
+        assertEquals(expectedResults, btc.trails(searchParams));
+    }
+
+    /**
+     * Test to verify asking for NDJSON writes one trail per line
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void ndjsonShouldWriteOneTrailPerLine() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the request
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Accept", BoulderRunnerController.NDJSON_VALUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MultiValueMap<String, String> searchParams = new LinkedMultiValueMap<String, String>();
+        searchParams.add("Fee", "Yes");
+
+        // Expected trails
+        String expectedResults = testTrails.getJSONObject(0).toString() + "\n"
+                + testTrails.getJSONObject(1).toString() + "\n";
+
+        // Assert
+        btc.trails(searchParams, request, response);
+        assertEquals(BoulderRunnerController.NDJSON_VALUE, response.getContentType());
+        assertEquals(expectedResults, response.getContentAsString());
+    }
+
+    /**
+     * Test to verify an invalid limit is rejected
+     * 
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimitShouldBeRejected() throws Exception {
+        BoulderRunnerController btc = new BoulderRunnerController();
+
+        Map<String, String> searchParams = new HashMap<String, String>();
+        searchParams.put("limit", "many");
+
+        btc.trails(searchParams);
+    }
+
+    /**
+     * Test to verify repeated parameters match any of their values and
+     * ranges compare numerically
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void rangeAndRepeatedParamsShouldMatchTrails() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the request, ParkSpaces>=20&Class=T1&Class=T3
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MultiValueMap<String, String> searchParams = new LinkedMultiValueMap<String, String>();
+        searchParams.add("ParkSpaces>", "20");
+        searchParams.add("Class", "T1");
+        searchParams.add("Class", "T3");
+        searchParams.add("fields", "AccessID");
+
+        // Assert, 6 and 12 spaces are less than 20 when compared as numbers
+        btc.trails(searchParams, request, response);
+        assertEquals("[{\"AccessID\":\"277\"},{\"AccessID\":\"417\"}]", response.getContentAsString());
+    }
+
+    /**
+     * Test to verify a parameter that is not a valid clause is rejected
+     * 
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidClauseShouldBeRejected() throws Exception {
+        BoulderRunnerController btc = new BoulderRunnerController();
+
+        Map<String, String> searchParams = new HashMap<String, String>();
+        searchParams.put("or", "Fee");
+
+        btc.trails(searchParams);
+    }
+
+    /**
+     * Test to verify search returns the best matching trails first and
+     * can be narrowed with search parameters
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void searchShouldReturnBestMatchesFirst() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the request, a typo and a filter
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MultiValueMap<String, String> searchParams = new LinkedMultiValueMap<String, String>();
+        searchParams.add("q", "flagstaf summ");
+        searchParams.add("BikeRack", "Yes");
+        searchParams.add("fields", "AccessName");
+
+        // Assert
+        btc.search(searchParams, request, response);
+        assertEquals("[{\"AccessName\":\"Flagstaff Summit East\"}]", response.getContentAsString());
+    }
+
+    /**
+     * Test to verify facets count the values of the filtered trails and
+     * sum their numeric attributes per value
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void facetsShouldCountAndSumMatchingTrails() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the request, facet=Fee,Class&sum=ParkSpaces&BikeRack=Yes
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MultiValueMap<String, String> searchParams = new LinkedMultiValueMap<String, String>();
+        searchParams.add("facet", "Fee,Class");
+        searchParams.add("sum", "ParkSpaces");
+        searchParams.add("BikeRack", "Yes");
+
+        // Assert
+        btc.facets(searchParams, response);
+        JSONObject facets = new JSONObject(response.getContentAsString());
+        assertEquals(3, facets.getInt("count"));
+        assertEquals(97, facets.getJSONObject("sums").getJSONObject("ParkSpaces").getDouble("sum"), 0);
+        JSONObject yes = facets.getJSONObject("facets").getJSONArray("Fee").getJSONObject(1);
+        assertEquals("Yes", yes.getString("value"));
+        assertEquals(56, yes.getJSONObject("sums").getJSONObject("ParkSpaces").getDouble("max"), 0);
+        assertEquals("T3", facets.getJSONObject("facets").getJSONArray("Class").getJSONObject(0).getString("value"));
+    }
+
+    /**
+     * Test to verify a batch returns every matching trail once and the
+     * queries refer to them by index
+     * @throws Exception
+     */
+    @Test
+    public void batchShouldReturnSharedTrailsOnce() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the request, Fee=Yes&BikeRack=Yes and BikeRack=Yes&Class=T3
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        String body = "[{\"Fee\":\"Yes\",\"BikeRack\":\"Yes\"},{\"BikeRack\":\"Yes\",\"Class\":\"T3\"}]";
+
+        // Assert
+        btc.batch(body, "AccessID", request, response);
+        assertEquals("{\"trails\":[{\"AccessID\":\"277\"},{\"AccessID\":\"417\"}],"
+                + "\"results\":[{\"count\":1,\"trails\":[0]},{\"count\":2,\"trails\":[0,1]}]}",
+                response.getContentAsString());
+    }
+
+    /**
+     * Test to verify the trails with the most similar amenities are
+     * returned, most similar first
+     * @throws Exception
+     */
+    @Test
+    public void similarShouldReturnMostSimilarTrails() throws Exception {
+
+        // Mock out the part of the Controller that pulls the list of
+        // hiking trails
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        // Construct the request, /trails/279/similar?k=2&fields=AccessID
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        params.add("k", "2");
+        params.add("fields", "AccessID");
+
+        // Assert, 277 and 417 have the same facilities as 279
+        btc.similar("279", params, new MockHttpServletRequest(), response);
+        assertEquals("[{\"AccessID\":\"277\"},{\"AccessID\":\"417\"}]", response.getContentAsString());
+    }
+
+    /**
+     * Test to verify a batch that is not JSON, i.e. a form, is rejected
+     * @throws Exception
+     */
+    @Test(expected = HttpMediaTypeNotSupportedException.class)
+    public void formBatchShouldBeUnsupported() throws Exception {
+        BoulderRunnerController btc = spy(new BoulderRunnerController());
+        when(btc.getTrails()).thenReturn(testTrails);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE);
+        btc.batch("[{\"Fee\":\"Yes\"}]", "AccessID", request, new MockHttpServletResponse());
+    }
+
+    /**
+     * Test to verify a batch that is not JSON is reported as plain text,
+     * the same as the reactive handler does
+     */
+    @Test
+    public void unsupportedBatchShouldBeReportedAsText() {
+        BoulderRunnerController btc = new BoulderRunnerController();
+
+        ResponseEntity<String> response = btc.unsupportedMediaType(new HttpMediaTypeNotSupportedException(
+                MediaType.APPLICATION_FORM_URLENCODED, Collections.singletonList(MediaType.APPLICATION_JSON)));
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, response.getStatusCode());
+        assertEquals(MediaType.TEXT_PLAIN, response.getHeaders().getContentType());
+        assertEquals("Content type application/x-www-form-urlencoded is not supported, use application/json",
+                response.getBody());
+
+        // No content type at all
+        response = btc.unsupportedMediaType(new HttpMediaTypeNotSupportedException("Content type ''"));
+        assertEquals("Content type application/octet-stream is not supported, use application/json",
+                response.getBody());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for the ResponseCache
+ *
+ * @author Kniggit
+ */
+public class ResponseCacheTest {
+
+    private TrailStore store = TrailStore.of(new JSONArray("[{\"Fee\":\"Yes\"}]"));
+
+    /**
+     * Test to verify the key does not depend on parameter order
+     */
+    @Test
+    public void keyShouldBeIndependentOfParameterOrder() {
+        Map<String, String> first = new LinkedHashMap<String, String>();
+        first.put("Fee", "No");
+        first.put("BikeRack", "Yes");
+        Map<String, String> second = new LinkedHashMap<String, String>();
+        second.put("BikeRack", "Yes");
+        second.put("Fee", "No");
+
+        assertEquals(QueryParser.normalize(TrailRequest.of(first).getFilters()),
+                QueryParser.normalize(TrailRequest.of(second).getFilters()));
+    }
+
+    /**
+     * Test to verify the least recently used response is evicted
+     */
+    @Test
+    public void leastRecentlyUsedShouldBeEvicted() {
+        ResponseCache cache = new ResponseCache(2);
+        cache.put(store, "a", new byte[] {1});
+        cache.put(store, "b", new byte[] {2});
+        cache.get(store, "a");
+        cache.put(store, "c", new byte[] {3});
+
+        assertNull(cache.get(store, "b"));
+        assertArrayEquals(new byte[] {1}, cache.get(store, "a"));
+        assertEquals(Long.valueOf(1), cache.getStats().get("evictions"));
+        assertEquals(Long.valueOf(2), cache.getStats().get("hits"));
+        assertEquals(Long.valueOf(1), cache.getStats().get("misses"));
+    }
+
+    /**
+     * Test to verify a new store drops every cached response
+     */
+    @Test
+    public void newStoreShouldInvalidateCache() {
+        ResponseCache cache = new ResponseCache(2);
+        cache.put(store, "a", new byte[] {1});
+
+        TrailStore reloaded = TrailStore.of(new JSONArray("[{\"Fee\":\"No\"}]"));
+        assertNull(cache.get(reloaded, "a"));
+        assertEquals(Long.valueOf(0), cache.getStats().get("size"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit tests for the TrailService shared by both web stacks
+ *
+ * @author Kniggit
+ */
+public class TrailServiceTest {
+
+    // Hardcoded trails for these tests
+    private JSONArray testTrails = new JSONArray("[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"ParkSpaces\":\"12\"},"
+            + "{\"AccessID\":\"277\",\"Fee\":\"Yes\",\"ParkSpaces\":\"56\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"ParkSpaces\":\"6\"}]");
+
+    private TrailStore store;
+    private SimpleMeterRegistry registry;
+    private TrailService service;
+
+    @Before
+    public void setUp() {
+        TrailRepository repository = new TrailRepository();
+        registry = new SimpleMeterRegistry();
+        service = new TrailService(repository, 16, new TrailMetrics(registry, repository, -1));
+        store = TrailStore.of(testTrails);
+        repository.publish(store);
+    }
+
+    /**
+     * Test to verify complete responses are cached and only recorded once
+     * they were written
+     * @throws Exception
+     */
+    @Test
+    public void completeResponseShouldBeCached() throws Exception {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        params.add("Fee", "Yes");
+
+        TrailResponse response = service.trails(store, params, null);
+        assertFalse(response.isStreamed());
+        assertNull(registry.find("boulderrunner.query.matches").summary());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.write(out);
+        assertEquals(new JSONArray().put(testTrails.get(0)).put(testTrails.get(1)).toString(),
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(1, registry.get("boulderrunner.query.matches").tag("endpoint", "trails").summary().count());
+
+        assertArrayEquals(response.getBody(), service.trails(store, params, null).getBody());
+    }
+
+    /**
+     * Test to verify pages are streamed in the accepted format
+     * @throws Exception
+     */
+    @Test
+    public void pagesShouldBeStreamed() throws Exception {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        params.add("ParkSpaces>", "10");
+        params.add(TrailRequest.FIELDS, "AccessID");
+
+        TrailResponse response = service.trails(store, params, TrailRequest.NDJSON_VALUE);
+        assertTrue(response.isStreamed());
+        assertEquals(TrailRequest.NDJSON_VALUE, response.getContentType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.write(out);
+        assertEquals("{\"AccessID\":\"279\"}\n{\"AccessID\":\"277\"}\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to verify invalid parameters are rejected before anything is
+     * written
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void searchWithoutTextShouldBeRejected() {
+        service.search(store, new LinkedMultiValueMap<String, String>(), null);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import boulder.runner.api.TrailRequest;
+import boulder.runner.api.query.QueryEngine;
+import boulder.runner.api.query.QueryParser;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for TrailBatch and BatchRequest
+ *
+ * @author Kniggit
+ */
+public class TrailBatchTest {
+
+    // Hardcoded trails for these tests
+    private TrailStore store = TrailStore.of(new JSONArray(
+            "[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"ParkSpaces\":\"12\"},"
+            + "{\"AccessID\":\"277\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"ParkSpaces\":\"56\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"Class\":\"T1\",\"ParkSpaces\":\"6\"},"
+            + "{\"AccessID\":\"417\",\"Fee\":\"No\",\"Class\":\"T3\",\"ParkSpaces\":\" \"}]"));
+
+    private QueryEngine engine = new QueryEngine(0);
+
+    /**
+     * Test to verify every query of a batch large enough to be forked
+     * matches the same trails as on its own, and shared parameters are
+     * only evaluated once
+     */
+    @Test
+    public void batchShouldMatchSingleQueries() {
+        String[] queries = { "{\"Fee\":\"Yes\"}", "{\"Fee\":\"Yes\",\"Class\":\"T3\"}",
+                "{\"Class\":[\"T1\",\"T3\"],\"ParkSpaces>=\":10}", "{\"Fee\":\"No\",\"ParkSpaces>=\":10}",
+                "{\"or\":[\"Fee=No\",\"ParkSpaces>=50\"]}", "{\"AccessID~=\":\"27\",\"Class\":\"T3\"}",
+                "{}", "{\"Fee!=\":\"Yes\"}", "{\"Class\":\"T2\",\"Fee\":\"Yes\"}", "{\"Fee\":\"Yes\",\"limit\":1}" };
+        BatchRequest request = BatchRequest.of("[" + String.join(",", queries) + "]", null);
+        TrailBatch batch = TrailBatch.evaluate(engine, store, request.getQueries());
+
+        assertEquals(queries.length, batch.size());
+        assertEquals(9, batch.getDistinctFilters());
+        assertEquals(2, batch.getCount(2));
+        for(int q = 0; q < queries.length; q++) {
+            TrailRequest query = request.getQueries().get(q);
+            int[] expected = engine.find(store, QueryParser.normalize(query.getFilters()), query.getFilters())
+                    .stream().toArray();
+            assertEquals(queries[q], expected.length, batch.getCount(q));
+            assertArrayEquals(queries[q], Arrays.copyOf(expected, Math.min(expected.length, query.getLimit())),
+                    batch.getRows(q));
+        }
+    }
+
+    /**
+     * Test to verify every returned trail is written once and the queries
+     * refer to the trails by index
+     */
+    @Test
+    public void writeShouldReturnEveryTrailOnce() throws IOException {
+        BatchRequest request = BatchRequest.of("[{\"Class\":\"T3\",\"offset\":1},{\"Fee\":\"No\"},{\"Class\":\"T2\"}]",
+                "AccessID");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TrailBatch.evaluate(engine, store, request.getQueries()).write(request.getFields(), out);
+
+        JSONObject json = new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("[{\"AccessID\":\"277\"},{\"AccessID\":\"502a\"},{\"AccessID\":\"417\"}]",
+                json.getJSONArray("trails").toString());
+        JSONArray results = json.getJSONArray("results");
+        assertEquals(3, results.getJSONObject(0).getInt("count"));
+        assertEquals("[0,2]", results.getJSONObject(0).getJSONArray("trails").toString());
+        assertEquals(2, results.getJSONObject(1).getInt("count"));
+        assertEquals("[1,2]", results.getJSONObject(1).getJSONArray("trails").toString());
+        assertEquals(0, results.getJSONObject(2).getInt("count"));
+        assertEquals("[]", results.getJSONObject(2).getJSONArray("trails").toString());
+    }
+
+    /**
+     * Test to verify a key ending with an operator is followed by its
+     * value: &gt; and &lt; are strict, &gt;= and &lt;= inclusive
+     */
+    @Test
+    public void operatorKeysShouldBeFollowedByValue() {
+        BatchRequest request = BatchRequest.of("[{\"ParkSpaces>\":12},{\"ParkSpaces>=\":12},"
+                + "{\"ParkSpaces<\":12},{\"ParkSpaces<=\":12}]", null);
+        TrailBatch batch = TrailBatch.evaluate(engine, store, request.getQueries());
+
+        assertArrayEquals(new int[] { 1 }, batch.getRows(0));
+        assertArrayEquals(new int[] { 0, 1 }, batch.getRows(1));
+        assertArrayEquals(new int[] { 2 }, batch.getRows(2));
+        assertArrayEquals(new int[] { 0, 2 }, batch.getRows(3));
+    }
+
+    /**
+     * Test to verify the parameters of a query are read like a query
+     * string, and bodies that are not a batch are rejected
+     */
+    @Test
+    public void requestShouldReadQueryParameters() {
+        BatchRequest request = BatchRequest.of("[{\"Class\":[\"T1\",\"T3\"],\"ParkSpaces>=\":10,\"limit\":5}]", null);
+        TrailRequest query = request.getQueries().get(0);
+        assertEquals(Arrays.asList("T1", "T3"), query.getFilters().get("Class"));
+        assertEquals(Arrays.asList("10"), query.getFilters().get("ParkSpaces>"));
+        assertEquals(5, query.getLimit());
+        assertNull(request.getFields());
+
+        List<String> invalid = new ArrayList<String>();
+        for(String body : new String[] { "", "{\"Fee\":\"Yes\"}", "[\"Fee=Yes\"]", "[{\"fields\":\"AccessID\"}]",
+                "[{\"limit\":\"many\"}]" }) {
+            try {
+                BatchRequest.of(body, null);
+            } catch (IllegalArgumentException e) {
+                invalid.add(body);
+            }
+        }
+        assertEquals(5, invalid.size());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.facet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for FacetCounts and FacetRequest
+ *
+ * @author Kniggit
+ */
+public class FacetCountsTest {
+
+    // Hardcoded trails for these tests
+    private TrailStore store = TrailStore.of(new JSONArray(
+            "[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"ParkSpaces\":\"12\"},"
+            + "{\"AccessID\":\"277\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"ParkSpaces\":\"56\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"Class\":\"T1\",\"ParkSpaces\":\"6\"},"
+            + "{\"AccessID\":\"417\",\"Fee\":\"No\",\"Class\":\"T3\",\"ParkSpaces\":\" \"}]"));
+
+    /**
+     * Test to verify the counts and sums over all trails, which come from
+     * the column dictionaries
+     */
+    @Test
+    public void allTrailsShouldBeCountedFromDictionary() {
+        FacetCounts counts = FacetCounts.of(store, null, Arrays.asList("Fee", "Class"), Collections.emptyList());
+        assertEquals(4, counts.getCount());
+        assertEquals(2, counts.getCount("Fee", "Yes"));
+        assertEquals(3, counts.getCount("Class", "T3"));
+        assertEquals(0, counts.getCount("Class", "T2"));
+
+        JSONObject sums = FacetCounts.of(store, null, Collections.emptyList(), Arrays.asList("ParkSpaces"))
+                .toJSONObject().getJSONObject("sums").getJSONObject("ParkSpaces");
+        // The blank ParkSpaces is not a number and is skipped
+        assertEquals(3, sums.getInt("count"));
+        assertEquals(74, sums.getDouble("sum"), 0);
+        assertEquals(6, sums.getDouble("min"), 0);
+        assertEquals(56, sums.getDouble("max"), 0);
+    }
+
+    /**
+     * Test to verify only the matching trails are counted, and sums are
+     * grouped by facet value, most common value first
+     */
+    @Test
+    public void matchingTrailsShouldBeGrouped() {
+        BitSet matches = new BitSet();
+        matches.set(0, 3);
+        JSONObject json = FacetCounts.of(store, matches, Arrays.asList("Class"), Arrays.asList("ParkSpaces"))
+                .toJSONObject();
+        assertEquals(3, json.getInt("count"));
+
+        JSONArray classes = json.getJSONObject("facets").getJSONArray("Class");
+        assertEquals(2, classes.length());
+        assertEquals("T3", classes.getJSONObject(0).getString("value"));
+        assertEquals(2, classes.getJSONObject(0).getInt("count"));
+        JSONObject t3 = classes.getJSONObject(0).getJSONObject("sums").getJSONObject("ParkSpaces");
+        assertEquals(68, t3.getDouble("sum"), 0);
+        assertEquals(12, t3.getDouble("min"), 0);
+        assertEquals(56, t3.getDouble("max"), 0);
+        assertEquals("T1", classes.getJSONObject(1).getString("value"));
+        assertEquals(6, classes.getJSONObject(1).getJSONObject("sums").getJSONObject("ParkSpaces").getDouble("sum"), 0);
+    }
+
+    /**
+     * Test to verify facet and sum are split on commas and kept out of the
+     * filters
+     */
+    @Test
+    public void requestShouldSplitFacetsFromFilters() {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        params.add("facet", "Fee, Class");
+        params.add("facet", "Fee");
+        params.add("sum", "ParkSpaces");
+        params.add("Class", "T3");
+        params.add("limit", "1");
+        FacetRequest request = FacetRequest.of(params);
+        assertEquals(Arrays.asList("Fee", "Class"), request.getFacets());
+        assertEquals(Arrays.asList("ParkSpaces"), request.getSums());
+        assertEquals(Collections.singletonMap("Class", Arrays.asList("T3")), request.getFilters());
+    }
+}
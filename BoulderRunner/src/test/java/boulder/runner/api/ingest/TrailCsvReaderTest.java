@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import boulder.runner.api.store.TrailColumn;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for the streaming TrailCsvReader
+ *
+ * @author Kniggit
+ */
+public class TrailCsvReaderTest {
+
+    private static final String CSV = "FID,AccessID,AccessName,Fee\r\n"
+            + "0,279,\"Flagstaff Summit West, \"\"Upper\"\"\",Yes\r\n"
+            + "1,277,Flagstaff Summit East,Yes\r\n"
+            + "2,502a,East Boulder Trail at White Rocks,No\r\n";
+
+    /**
+     * Test to verify every record becomes a trail holding the attributes
+     * in header order, with quotes escaped
+     * @throws Exception
+     */
+    @Test
+    public void recordsShouldBeEncodedInHeaderOrder() throws Exception {
+        TrailStore store = TrailCsvReader.read(new StringReader(CSV));
+
+        assertEquals(3, store.size());
+        assertEquals(Arrays.asList("FID", "AccessID", "AccessName", "Fee"), store.getAttributes());
+
+        BitSet all = new BitSet();
+        all.set(0, store.size());
+        JSONArray trails = new JSONArray(new String(store.encode(all), "UTF-8"));
+        JSONObject first = trails.getJSONObject(0);
+        assertEquals("Flagstaff Summit West, \"Upper\"", first.getString("AccessName"));
+        assertEquals("{\"FID\":\"2\",\"AccessID\":\"502a\",\"AccessName\":\"East Boulder Trail at White Rocks\",\"Fee\":\"No\"}",
+                new String(toBytes(store, 2), "UTF-8"));
+    }
+
+    /**
+     * Test to verify repeated values are stored once
+     * @throws Exception
+     */
+    @Test
+    public void repeatedValuesShouldBeInterned() throws Exception {
+        TrailStore store = TrailCsvReader.read(new StringReader(CSV));
+
+        TrailColumn fee = store.getColumn("Fee");
+        assertEquals(2, fee.getCardinality());
+        assertSame(fee.getValue(fee.getCode(0)), fee.getValue(fee.getCode(1)));
+        assertFalse(fee.isUnique());
+        assertEquals(3, store.getColumn("FID").getCardinality());
+    }
+
+    private static byte[] toBytes(TrailStore store, int row) {
+        ByteBuffer trail = store.getEncodedTrail(row);
+        byte[] bytes = new byte[trail.remaining()];
+        trail.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.spy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.store.SnapshotFile;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for the background TrailLoader, run against a local file
+ * and a stub HTTP server instead of the City of Boulder.
+ *
+ * @author Kniggit
+ */
+public class TrailLoaderTest {
+
+    private static final String CSV = "AccessID,AccessName,Fee\r\n"
+            + "279,Flagstaff Summit West,Yes\r\n"
+            + "502a,East Boulder Trail at White Rocks,No\r\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test to verify an unchanged file is not loaded again
+     * @throws Exception
+     */
+    @Test
+    public void unchangedFileShouldNotBeReloaded() throws Exception {
+        File csv = folder.newFile("trails.csv");
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+
+        TrailRepository repository = new TrailRepository();
+        TrailLoader loader = new TrailLoader(repository, csv.toURI().toString(), "");
+
+        assertTrue(loader.refresh());
+        TrailStore loaded = repository.current();
+        assertEquals(2, loaded.size());
+
+        assertFalse(loader.refresh());
+        assertSame(loaded, repository.current());
+    }
+
+    /**
+     * Test to verify the last good trails are kept when a refresh fails
+     * @throws Exception
+     */
+    @Test
+    public void failedRefreshShouldKeepLastGoodTrails() throws Exception {
+        File csv = folder.newFile("trails.csv");
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+
+        TrailRepository repository = new TrailRepository();
+        TrailLoader loader = new TrailLoader(repository, csv.toURI().toString(), "");
+        assertTrue(loader.refresh());
+        TrailStore loaded = repository.current();
+
+        assertTrue(csv.delete());
+        assertFalse(loader.refresh());
+        assertSame(loaded, repository.current());
+    }
+
+    /**
+     * Test to verify the ETag is sent back and a 304 keeps the current trails
+     * @throws Exception
+     */
+    @Test
+    public void notModifiedResponseShouldNotBeParsed() throws Exception {
+        AtomicInteger downloads = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/trails.csv", exchange -> {
+            if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = CSV.getBytes(StandardCharsets.UTF_8);
+                downloads.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                try(OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            TrailRepository repository = new TrailRepository();
+            TrailLoader loader = new TrailLoader(repository,
+                    "http://localhost:" + server.getAddress().getPort() + "/trails.csv", "");
+
+            assertTrue(loader.refresh());
+            TrailStore loaded = repository.current();
+            assertFalse(loader.refresh());
+            assertSame(loaded, repository.current());
+            assertEquals(1, downloads.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test to verify a source that never responds fails the refresh once
+     * the read timeout passes, and the failure is counted
+     * @throws Exception
+     */
+    @Test
+    public void hungSourceShouldTimeOut() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/trails.csv", exchange -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            TrailRepository repository = new TrailRepository();
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            TrailLoader loader = new TrailLoader(repository,
+                    "http://localhost:" + server.getAddress().getPort() + "/trails.csv", "",
+                    new TrailMetrics(registry, repository, -1), 1000, 200);
+
+            long start = System.nanoTime();
+            assertFalse(loader.refresh());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+            assertEquals(1, registry.counter("boulderrunner.ingest.failures", "source", "download").count(), 0);
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test to verify a restarted loader serves the snapshot written by the
+     * last successful load, and does not parse an unchanged source again
+     * @throws Exception
+     */
+    @Test
+    public void snapshotShouldBeServedOnStartup() throws Exception {
+        File csv = folder.newFile("trails.csv");
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+        String snapshotPath = new File(folder.getRoot(), "trails.snapshot").getPath();
+
+        TrailLoader loader = new TrailLoader(new TrailRepository(), csv.toURI().toString(), snapshotPath);
+        assertFalse(loader.loadSnapshot());
+        assertTrue(loader.refresh());
+
+        TrailRepository repository = new TrailRepository();
+        TrailLoader restarted = new TrailLoader(repository, csv.toURI().toString(), snapshotPath);
+        assertTrue(restarted.loadSnapshot());
+        TrailStore loaded = repository.current();
+        assertEquals(2, loaded.size());
+        assertEquals("502a", loaded.getTrail(1).getString("AccessID"));
+
+        assertFalse(restarted.refresh());
+        assertSame(loaded, repository.current());
+    }
+
+    /**
+     * Test to verify a source that was stamped again without changing
+     * keeps the current trails and snapshot, and only its caching headers
+     * are updated
+     * @throws Exception
+     */
+    @Test
+    public void restampedSourceShouldOnlyUpdateValidators() throws Exception {
+        AtomicInteger downloads = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/trails.csv", exchange -> {
+            byte[] body = CSV.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", "\"v" + downloads.incrementAndGet() + "\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            File snapshot = new File(folder.getRoot(), "trails.snapshot");
+            TrailRepository repository = new TrailRepository();
+            TrailLoader loader = new TrailLoader(repository,
+                    "http://localhost:" + server.getAddress().getPort() + "/trails.csv", snapshot.getPath());
+            assertTrue(loader.refresh());
+            TrailStore loaded = repository.current();
+            Object fileKey = Files.readAttributes(snapshot.toPath(), BasicFileAttributes.class).fileKey();
+
+            assertFalse(loader.refresh());
+            assertSame(loaded, repository.current());
+            assertTrue(loader.getLastDelta().isEmpty());
+            // The snapshot was not replaced, but knows the new ETag
+            assertEquals(fileKey, Files.readAttributes(snapshot.toPath(), BasicFileAttributes.class).fileKey());
+            assertEquals("\"v2\"", new SnapshotFile(snapshot.toPath()).read().getEtag());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test to verify the caching headers of a source stamped again are not
+     * stamped on a snapshot that still holds older trails, because writing
+     * the changed trails failed
+     * @throws Exception
+     */
+    @Test
+    public void failedSnapshotShouldBeWrittenAgain() throws Exception {
+        File csv = folder.newFile("trails.csv");
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+        SnapshotFile snapshotFile = spy(new SnapshotFile(new File(folder.getRoot(), "trails.snapshot").toPath()));
+        doCallRealMethod().doThrow(new IOException("No space left on device")).doCallRealMethod()
+                .when(snapshotFile).write(any(), any(), anyLong());
+        TrailRepository repository = new TrailRepository();
+        TrailLoader loader = new TrailLoader(repository, csv.toURI().toURL(), snapshotFile,
+                new TrailMetrics(repository), 1000, 1000);
+        assertTrue(loader.refresh());
+
+        // Changed trails whose snapshot can not be written
+        String changed = "AccessID,AccessName,Fee\r\n"
+                + "417,Buckingham Park,No\r\n";
+        Files.write(csv.toPath(), changed.getBytes(StandardCharsets.UTF_8));
+        assertTrue(csv.setLastModified(csv.lastModified() + 2000));
+        assertTrue(loader.refresh());
+        assertEquals(2, new SnapshotFile(snapshotFile.getPath()).read().getStore().size());
+
+        // Same trails, newer file
+        assertTrue(csv.setLastModified(csv.lastModified() + 2000));
+        assertFalse(loader.refresh());
+        SnapshotFile.Contents contents = new SnapshotFile(snapshotFile.getPath()).read();
+        assertEquals(csv.lastModified(), contents.getLastModified());
+        assertEquals(1, contents.getStore().size());
+        assertEquals("417", contents.getStore().getTrail(0).getString("AccessID"));
+    }
+
+    /**
+     * Test to verify only a source with changed trails is published, and
+     * the changed trails are counted
+     * @throws Exception
+     */
+    @Test
+    public void onlyChangedTrailsShouldBePublished() throws Exception {
+        File csv = folder.newFile("trails.csv");
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+        TrailRepository repository = new TrailRepository();
+        TrailLoader loader = new TrailLoader(repository, csv.toURI().toString(), "");
+        assertTrue(loader.refresh());
+        TrailStore loaded = repository.current();
+
+        // Same trails, newer file
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+        assertTrue(csv.setLastModified(csv.lastModified() + 2000));
+        assertFalse(loader.refresh());
+        assertSame(loaded, repository.current());
+        assertTrue(loader.getLastDelta().isEmpty());
+
+        // One trail changed, one deleted and one inserted
+        String changed = "AccessID,AccessName,Fee\r\n"
+                + "279,Flagstaff Summit West,No\r\n"
+                + "417,Buckingham Park,No\r\n";
+        Files.write(csv.toPath(), changed.getBytes(StandardCharsets.UTF_8));
+        assertTrue(csv.setLastModified(csv.lastModified() + 4000));
+        assertTrue(loader.refresh());
+        assertEquals(1, loader.getLastDelta().getInserted());
+        assertEquals(1, loader.getLastDelta().getUpdated());
+        assertEquals(1, loader.getLastDelta().getDeleted());
+    }
+}
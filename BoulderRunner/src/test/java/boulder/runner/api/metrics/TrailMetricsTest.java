@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Unit tests for the TrailMetrics
+ *
+ * @author Kniggit
+ */
+public class TrailMetricsTest {
+
+    // Hardcoded trails for these tests
+    private TrailStore store = TrailStore.of(new JSONArray(
+            "[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"ParkSpaces\":\"12\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"ParkSpaces\":\"6\"}]"));
+
+    private SimpleMeterRegistry registry;
+    private TrailMetrics metrics;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        TrailRepository repository = new TrailRepository();
+        metrics = new TrailMetrics(registry, repository, 0);
+        repository.publish(store);
+    }
+
+    /**
+     * Test to verify every phase of a query is timed and the matches are
+     * recorded per endpoint
+     */
+    @Test
+    public void queryPhasesShouldBeTimed() {
+        QueryTimer timer = metrics.start(TrailMetrics.TRAILS);
+        timer.parsed();
+        timer.filtered(2);
+        timer.serialized();
+        metrics.record(store, timer, new LinkedHashMap<String, List<String>>());
+
+        for(String phase : Arrays.asList("parse", "filter", "serialize")) {
+            assertEquals(1, registry.get("boulderrunner.query").tags("endpoint", "trails", "phase", phase)
+                    .timer().count());
+        }
+        assertEquals(2, registry.get("boulderrunner.query.matches").tag("endpoint", "trails")
+                .summary().totalAmount(), 0);
+        assertEquals(2, registry.get("boulderrunner.trails").gauge().value(), 0);
+    }
+
+    /**
+     * Test to verify filters are counted by attribute, including the
+     * clauses of OR, and unknown attributes are counted as other
+     */
+    @Test
+    public void filtersShouldBeCountedByAttribute() {
+        Map<String, List<String>> filters = new LinkedHashMap<String, List<String>>();
+        filters.put("Fee", Arrays.asList("Yes"));
+        filters.put("ParkSpaces>", Arrays.asList("10"));
+        filters.put("or", Arrays.asList("Fee=No", "ParkSpaces<=5"));
+        filters.put("Unknown", Arrays.asList("1"));
+        QueryTimer timer = metrics.start(TrailMetrics.TRAILS);
+        timer.parsed();
+        timer.filtered(-1);
+        timer.serialized();
+        metrics.record(store, timer, filters);
+
+        assertEquals(2, registry.get("boulderrunner.query.filters").tag("attribute", "Fee").counter().count(), 0);
+        assertEquals(2, registry.get("boulderrunner.query.filters").tag("attribute", "ParkSpaces").counter().count(), 0);
+        assertEquals(1, registry.get("boulderrunner.query.filters").tag("attribute", "other").counter().count(), 0);
+        // Cached responses do not know their matches
+        assertEquals(0, registry.get("boulderrunner.query.matches").summary().count());
+    }
+
+    /**
+     * Test to verify queries that did not complete are not recorded
+     */
+    @Test
+    public void incompleteQueriesShouldNotBeRecorded() {
+        QueryTimer timer = metrics.start(TrailMetrics.SEARCH);
+        timer.parsed();
+        metrics.record(store, timer, new LinkedHashMap<String, List<String>>());
+        assertNull(registry.find("boulderrunner.query").timer());
+    }
+
+    /**
+     * Test to verify ingestion is timed and counted per source
+     */
+    @Test
+    public void ingestShouldBeRecordedPerSource() {
+        metrics.recordIngest(TrailMetrics.DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(20), 200);
+        metrics.recordIngestFailure(TrailMetrics.SNAPSHOT);
+
+        assertEquals(20, registry.get("boulderrunner.ingest").tag("source", "download").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(200, registry.get("boulderrunner.ingest.rows").summary().totalAmount(), 0);
+        assertEquals(1, registry.get("boulderrunner.ingest.failures").tag("source", "snapshot").counter().count(), 0);
+    }
+}
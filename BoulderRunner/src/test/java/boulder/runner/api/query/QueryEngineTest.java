@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.json.JSONArray;
+import org.junit.Test;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for parsing, compiling and caching trail queries
+ *
+ * @author Kniggit
+ */
+public class QueryEngineTest {
+
+    // Hardcoded trails for these tests
+    private TrailStore store = TrailStore.of(new JSONArray(
+            "[{\"AccessName\":\"Flagstaff Summit West\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"ParkSpaces\":\"12\","
+            + "\"DateFrom\":\"2005-12-31 00:00:00\",\"DateTo\":\"2099-12-31 00:00:00\"},"
+            + "{\"AccessName\":\"Flagstaff Summit East\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"ParkSpaces\":\"56\","
+            + "\"DateFrom\":\"2005-12-31 00:00:00\",\"DateTo\":\"2010-06-30 00:00:00\"},"
+            + "{\"AccessName\":\"East Boulder Trail at White Rocks\",\"Fee\":\"No\",\"Class\":\"T1\",\"ParkSpaces\":\"6\","
+            + "\"DateFrom\":\"2012-01-01 00:00:00\",\"DateTo\":\"2099-12-31 00:00:00\"},"
+            + "{\"AccessName\":\"Buckingham Park\",\"Class\":\"T2\",\"ParkSpaces\":\"35\"}]"));
+
+    /**
+     * Test to verify ranges compare numbers as numbers, not strings
+     */
+    @Test
+    public void rangesShouldCompareNumerically() {
+        QueryEngine engine = new QueryEngine(16);
+
+        assertEquals(rows(1, 3), engine.find(store, params("ParkSpaces>", "20")));
+        assertEquals(rows(0, 2), engine.find(store, params("ParkSpaces<20", "")));
+        assertEquals(rows(0, 3), engine.find(store, params("ParkSpaces>", "12", "ParkSpaces<", "35")));
+    }
+
+    /**
+     * Test to verify IN, not equal and prefix clauses
+     */
+    @Test
+    public void inNotEqualAndPrefixShouldMatch() {
+        QueryEngine engine = new QueryEngine(16);
+
+        assertEquals(rows(2, 3), engine.find(store, params("Class", "T1", "Class", "T2")));
+        // Trails without a Fee are not equal to Yes
+        assertEquals(rows(2, 3), engine.find(store, params("Fee!", "Yes")));
+        assertEquals(rows(0, 1), engine.find(store, params("AccessName~", "Flagstaff")));
+    }
+
+    /**
+     * Test to verify or clauses are combined with OR, and with AND with
+     * the other parameters
+     */
+    @Test
+    public void orClausesShouldMatchAnyAlternative() {
+        QueryEngine engine = new QueryEngine(16);
+
+        assertEquals(rows(1, 2), engine.find(store, params("or", "Class=T1", "or", "ParkSpaces>=50")));
+        assertEquals(rows(1), engine.find(store, params("Fee", "Yes", "or", "Class=T1", "or", "ParkSpaces>=50")));
+    }
+
+    /**
+     * Test to verify a negation is not skipped by OR when the negated plan
+     * overestimates its matches
+     */
+    @Test
+    public void orShouldKeepNegatedConjunction() {
+        // Class=T3 and Fee=Yes are the same two trails, so their OR is
+        // estimated to match all four trails but matches two
+        Predicate covering = new Conjunction(Arrays.<Predicate>asList(new Disjunction(Arrays.<Predicate>asList(
+                new Clause("Class", Operator.EQ, "T3"), new Clause("Fee", Operator.EQ, "Yes")))));
+        Predicate query = new Disjunction(Arrays.<Predicate>asList(new Negation(covering),
+                new Clause("Class", Operator.EQ, "T2")));
+
+        assertEquals(rows(2, 3), query.compile(store).evaluate());
+    }
+
+    /**
+     * Test to verify openOn matches trails whose dates include the day,
+     * and trails without dates
+     */
+    @Test
+    public void openOnShouldMatchTrailsOpenOnTheDate() {
+        QueryEngine engine = new QueryEngine(16);
+
+        assertEquals(rows(0, 1, 3), engine.find(store, params("openOn", "2008-05-01")));
+        assertEquals(rows(0, 2, 3), engine.find(store, params("openOn", "2016/06/01")));
+    }
+
+    /**
+     * Test to verify equivalent queries share one compiled plan, which is
+     * dropped when the trails change
+     */
+    @Test
+    public void plansShouldBeCachedByNormalizedQuery() {
+        QueryEngine engine = new QueryEngine(16);
+
+        MultiValueMap<String, String> first = params("Class", "T1", "Class", "T2", "Fee!", "Yes");
+        MultiValueMap<String, String> second = params("Fee!", "Yes", "Class", "T2", "Class", "T1");
+        assertEquals(QueryParser.normalize(first), QueryParser.normalize(second));
+
+        Plan plan = engine.getPlan(store, QueryParser.normalize(first), first);
+        assertSame(plan, engine.getPlan(store, QueryParser.normalize(second), second));
+        assertEquals(1L, (long)engine.getStats().get("hits"));
+
+        TrailStore reloaded = TrailStore.of(new JSONArray("[{\"Class\":\"T1\"}]"));
+        assertEquals(rows(0), engine.find(reloaded, first));
+        assertEquals(2L, (long)engine.getStats().get("misses"));
+    }
+
+    /**
+     * Test to verify a clause without an operator is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void clauseWithoutOperatorShouldBeRejected() {
+        new QueryEngine(16).find(store, params("or", "Fee"));
+    }
+
+    private static MultiValueMap<String, String> params(String... namesAndValues) {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<String, String>();
+        for(int i = 0; i < namesAndValues.length; i += 2) {
+            params.add(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static BitSet rows(int... rows) {
+        BitSet bitmap = new BitSet();
+        for(int row : rows) {
+            bitmap.set(row);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.reactive;
+
+import java.time.Duration;
+import java.util.BitSet;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import boulder.runner.api.TrailRequest.Format;
+import boulder.runner.api.TrailWriter;
+import boulder.runner.api.metrics.TrailMetrics;
+import boulder.runner.api.store.TrailRepository;
+import boulder.runner.api.store.TrailStore;
+import reactor.test.StepVerifier;
+
+/**
+ * Unit tests for the reactive TrailHandler, bound to its routes without
+ * starting a server
+ *
+ * @author Kniggit
+ */
+public class TrailHandlerTest {
+
+    // Hardcoded trails for these tests
+    private JSONArray testTrails = new JSONArray("[{\"AccessID\":\"279\",\"AccessName\":\"Flagstaff Summit West\",\"Fee\":\"Yes\",\"ParkSpaces\":\"12\"},"
+            + "{\"AccessID\":\"277\",\"AccessName\":\"Flagstaff Summit East\",\"Fee\":\"Yes\",\"ParkSpaces\":\"56\"},"
+            + "{\"AccessID\":\"502a\",\"AccessName\":\"East Boulder Trail at White Rocks\",\"Fee\":\"No\",\"ParkSpaces\":\"6\"}]");
+
+    private TrailRepository repository;
+    private WebTestClient client;
+
+    @Before
+    public void setUp() {
+        repository = new TrailRepository();
+        repository.publish(TrailStore.of(testTrails));
+        TrailHandler handler = new TrailHandler(repository, 16);
+        client = WebTestClient.bindToRouterFunction(new ReactiveTrailConfiguration().trailRoutes(handler)).build();
+    }
+
+    /**
+     * Test to verify the JSON array is the same as the one of the servlet
+     * controller, for complete and projected responses
+     */
+    @Test
+    public void trailsShouldMatchServletResponses() {
+        client.get().uri("/trails?Fee=Yes").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON_UTF8)
+                .expectBody(String.class).isEqualTo(new JSONArray().put(testTrails.get(0)).put(testTrails.get(1)).toString());
+
+        client.get().uri(uri -> uri.path("/trails").queryParam("ParkSpaces>", "10")
+                .queryParam("fields", "AccessID").queryParam("offset", "1").build()).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[{\"AccessID\":\"277\"}]");
+    }
+
+    /**
+     * Test to verify parameters without a value are clauses of their own
+     * like on the servlet stack: a strict range, and an attribute matching
+     * the trails where it is blank
+     */
+    @Test
+    public void paramsWithoutValueShouldBeClauses() {
+        client.get().uri(uri -> uri.path("/trails").queryParam("ParkSpaces>20")
+                .queryParam("fields", "AccessID").build()).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[{\"AccessID\":\"277\"}]");
+
+        client.get().uri("/trails?Fee").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[]");
+    }
+
+    /**
+     * Test to verify asking for server-sent events writes one event per
+     * trail
+     */
+    @Test
+    public void eventStreamShouldWriteOneEventPerTrail() {
+        client.get().uri("/trails?Fee=No&fields=AccessID").accept(MediaType.TEXT_EVENT_STREAM).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("data:{\"AccessID\":\"502a\"}\n\n");
+    }
+
+    /**
+     * Test to verify invalid parameters are answered with bad request
+     */
+    @Test
+    public void invalidParamsShouldBeBadRequest() {
+        client.get().uri("/trails?limit=many").exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("limit must be a number");
+    }
+
+    /**
+     * Test to verify facets count the values of the matching trails
+     */
+    @Test
+    public void facetsShouldCountMatchingTrails() {
+        client.get().uri("/trails/facets?facet=Fee&sum=ParkSpaces&AccessName~=Flagstaff").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON_UTF8)
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sums.ParkSpaces.sum").isEqualTo(68.0)
+                .jsonPath("$.facets.Fee[0].value").isEqualTo("Yes")
+                .jsonPath("$.facets.Fee[0].count").isEqualTo(2);
+    }
+
+    /**
+     * Test to verify a batch returns every trail once and the results of
+     * every query
+     */
+    @Test
+    public void batchShouldAnswerEveryQuery() {
+        client.post().uri("/trails/batch?fields=AccessID").contentType(MediaType.APPLICATION_JSON)
+                .syncBody("[{\"Fee\":\"Yes\"},{\"ParkSpaces>=\":50}]").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON_UTF8)
+                .expectBody(String.class).isEqualTo("{\"trails\":[{\"AccessID\":\"279\"},{\"AccessID\":\"277\"}],"
+                        + "\"results\":[{\"count\":2,\"trails\":[0,1]},{\"count\":1,\"trails\":[1]}]}");
+
+        client.post().uri("/trails/batch").contentType(MediaType.APPLICATION_JSON)
+                .syncBody("[{\"format\":\"ndjson\"}]").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Test to verify a batch that is not JSON, i.e. a form, is rejected
+     * as unsupported
+     */
+    @Test
+    public void formBatchShouldBeUnsupported() {
+        client.post().uri("/trails/batch").contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .syncBody("[{\"Fee\":\"Yes\"}]").exchange()
+                .expectStatus().isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+
+        client.post().uri("/trails/batch").syncBody("[{\"Fee\":\"Yes\"}]").exchange()
+                .expectStatus().isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    /**
+     * Test to verify the similar trails are returned most similar first,
+     * and unknown trails are not found
+     */
+    @Test
+    public void similarShouldReturnMostSimilarTrails() {
+        client.get().uri("/trails/279/similar?k=1&fields=AccessID").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[{\"AccessID\":\"277\"}]");
+
+        client.get().uri("/trails/similar?liked=279,277&fields=AccessID").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[{\"AccessID\":\"502a\"}]");
+
+        client.get().uri("/trails/999/similar").exchange()
+                .expectStatus().isNotFound();
+        client.get().uri("/trails/similar").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Test to verify chunks are only encoded as they are requested
+     */
+    @Test
+    public void streamShouldHonourBackpressure() {
+        TrailStore store = repository.current();
+        TrailHandler handler = new TrailHandler(repository, 16, new TrailMetrics(repository), 1);
+        BitSet all = new BitSet();
+        all.set(0, store.size());
+
+        StepVerifier.create(handler.stream(new TrailWriter(store, null, Format.NDJSON), all.stream().iterator()), 0)
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenRequest(2)
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for the trail SearchIndex
+ *
+ * @author Kniggit
+ */
+public class SearchIndexTest {
+
+    // Hardcoded trails for these tests
+    private SearchIndex index = SearchIndex.of(TrailStore.of(new JSONArray(
+            "[{\"AccessName\":\"Chautauqua\",\"Address\":\"900 Baseline Rd\",\"ADAfacName\":\"Ranger Cottage\"},"
+            + "{\"AccessName\":\"Flagstaff Summit West\",\"Address\":\"621 Flagstaff Summit Rd\",\"ADAfacName\":\"Wood Shelter\"},"
+            + "{\"AccessName\":\"Flagstaff Summit East\",\"Address\":\"790 Flagstaff Summit Rd\",\"ADAfacName\":\"Nature Center\"},"
+            + "{\"AccessName\":\"Realization Point\",\"Address\":\"Flagstaff Rd\",\"ADAfacName\":\" \"},"
+            + "{\"AccessName\":\"East Boulder Trail at White Rocks\",\"Address\":\"4705 95th St\",\"ADAfacName\":\" \"}]")));
+
+    /**
+     * Test to verify a partially typed name finds the trails, ranking
+     * names starting with it above addresses containing it
+     */
+    @Test
+    public void prefixShouldMatchNamesBeforeAddresses() {
+        assertArrayEquals(new int[] { 1, 2, 3 }, index.search("flagst", null, 0, 10));
+        assertArrayEquals(new int[] { 2 }, index.search("Flagstaff Summit Ea", null, 0, 10));
+        assertArrayEquals(new int[] { 4 }, index.search("95th", null, 0, 10));
+        assertArrayEquals(new int[] { 0 }, index.search("ranger", null, 0, 10));
+    }
+
+    /**
+     * Test to verify small typos are tolerated, but short terms must match
+     */
+    @Test
+    public void typosShouldBeTolerated() {
+        assertArrayEquals(new int[] { 0 }, index.search("chatauqua", null, 0, 10));
+        assertArrayEquals(new int[] { 1, 2, 3 }, index.search("flagsatff", null, 0, 10));
+        assertArrayEquals(new int[] { 4 }, index.search("white rokcs", null, 0, 10));
+        assertEquals(0, index.search("xyz", null, 0, 10).length);
+    }
+
+    /**
+     * Test to verify only allowed rows are returned, and offset and limit
+     * page through the ranked results
+     */
+    @Test
+    public void resultsShouldBeFilteredAndPaged() {
+        BitSet allowed = new BitSet();
+        allowed.set(2, 4);
+        assertArrayEquals(new int[] { 2, 3 }, index.search("flagstaff", allowed, 0, 10));
+        assertArrayEquals(new int[] { 2 }, index.search("flagstaff", null, 1, 1));
+        assertEquals(0, index.search("flagstaff", null, 3, 10).length);
+    }
+
+    /**
+     * Test to verify the distance to the closest prefix of a token
+     */
+    @Test
+    public void prefixDistanceShouldCountEdits() {
+        assertEquals(0, SearchIndex.prefixDistance("flag", "flagstaff", 1));
+        assertEquals(1, SearchIndex.prefixDistance("falg", "flagstaff", 1));
+        assertEquals(1, SearchIndex.prefixDistance("flqg", "flagstaff", 1));
+        assertEquals(2, SearchIndex.prefixDistance("blqg", "flagstaff", 2));
+    }
+}
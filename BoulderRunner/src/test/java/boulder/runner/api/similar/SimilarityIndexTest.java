@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.similar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import boulder.runner.api.store.TrailStore;
+
+/**
+ * Unit tests for TrailFeatures, SimilarityIndex and TrailRecommender
+ *
+ * @author Kniggit
+ */
+public class SimilarityIndexTest {
+
+    // Hardcoded trails for these tests
+    private TrailStore store = TrailStore.of(new JSONArray(
+            "[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"Grills\":\"Yes\",\"ParkSpaces\":\"12\"},"
+            + "{\"AccessID\":\"277\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"Grills\":\"Yes\",\"ParkSpaces\":\"56\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"Class\":\"T1\",\"Grills\":\"No\",\"ParkSpaces\":\"6\"},"
+            + "{\"AccessID\":\"417\",\"Fee\":\"No\",\"Class\":\"T3\",\"Grills\":\"Yes\",\"ParkSpaces\":\" \"},"
+            + "{\"AccessID\":\"280\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"Grills\":\"Yes\",\"ParkSpaces\":\"14\"}]"));
+
+    /**
+     * Test to verify values are features, and numbers have a feature for
+     * every level they reach
+     */
+    @Test
+    public void featuresShouldHoldValuesAndLevels() {
+        TrailFeatures features = TrailFeatures.of(store);
+        int feeYes = features.getNames().indexOf("Fee=Yes");
+        int parkSpaces10 = features.getNames().indexOf("ParkSpaces>=10");
+        int parkSpaces50 = features.getNames().indexOf("ParkSpaces>=50");
+        assertTrue(features.hasFeature(0, feeYes));
+        assertFalse(features.hasFeature(2, feeYes));
+        assertTrue(features.hasFeature(0, parkSpaces10));
+        assertFalse(features.hasFeature(0, parkSpaces50));
+        assertTrue(features.hasFeature(1, parkSpaces50));
+        // A blank number reaches no level
+        assertFalse(features.hasFeature(3, features.getNames().indexOf("ParkSpaces>=1")));
+    }
+
+    /**
+     * Test to verify the most similar trails come first, trails with the
+     * same amenities before all others
+     */
+    @Test
+    public void similarShouldRankByAmenities() {
+        TrailRecommender recommender = new TrailRecommender();
+        assertTrue(recommender.getIndex(store).isPrecomputed());
+        // 279 and 280 have the same vector, 277 only has more parking
+        assertArrayEquals(new int[] { 4, 1, 3, 2 }, recommender.similar(store, "279", 10));
+        assertArrayEquals(new int[] { 0, 1 }, recommender.similar(store, "280", 2));
+
+        // 277 and 417 share Class and Grills with 279 and 280 both
+        assertArrayEquals(new int[] { 4, 1 }, recommender.similar(store, Arrays.asList("279", "417"), 2));
+        try {
+            recommender.similar(store, "999", 10);
+            throw new AssertionError("Unknown AccessID");
+        } catch (NoSuchElementException e) {
+            assertEquals("No trail has AccessID 999", e.getMessage());
+        }
+    }
+
+    /**
+     * Test to verify the precomputed similar trails are the ones ranked on
+     * request, and are ranked by Jaccard index
+     */
+    @Test
+    public void precomputedShouldMatchRankedOnRequest() {
+        Random random = new Random(2016);
+        JSONArray trails = new JSONArray();
+        for(int row = 0; row < 300; row++) {
+            trails.put(new JSONObject()
+                    .put("AccessID", Integer.toString(row))
+                    .put("Class", "T" + random.nextInt(4))
+                    .put("Fee", random.nextBoolean() ? "Yes" : "No")
+                    .put("Grills", random.nextBoolean() ? "Yes" : "No")
+                    .put("HorseTrail", random.nextBoolean() ? "Possible" : "Not Recommended")
+                    .put("ADAparking", random.nextInt(4) == 0 ? "Yes" : "No")
+                    .put("ParkSpaces", Integer.toString(random.nextInt(120))));
+        }
+        TrailStore random300 = TrailStore.of(trails);
+        SimilarityIndex precomputed = SimilarityIndex.of(random300);
+        SimilarityIndex onRequest = SimilarityIndex.of(random300, 0);
+        assertTrue(precomputed.isPrecomputed());
+        assertFalse(onRequest.isPrecomputed());
+
+        TrailFeatures features = precomputed.getFeatures();
+        for(int row = 0; row < random300.size(); row++) {
+            int[] similar = precomputed.similar(row, SimilarityIndex.MAX_K);
+            assertArrayEquals(similar, onRequest.similar(row, SimilarityIndex.MAX_K));
+            assertEquals(SimilarityIndex.MAX_K, similar.length);
+
+            // Scores never increase, and no other trail scores higher
+            boolean[] returned = new boolean[random300.size()];
+            for(int i = 0; i < similar.length; i++) {
+                returned[similar[i]] = true;
+                if(i > 0) {
+                    assertTrue(jaccard(features, row, similar[i - 1]) >= jaccard(features, row, similar[i]));
+                }
+            }
+            double last = jaccard(features, row, similar[similar.length - 1]);
+            for(int other = 0; other < random300.size(); other++) {
+                assertTrue(other == row || returned[other] || jaccard(features, row, other) <= last);
+            }
+        }
+    }
+
+    private static double jaccard(TrailFeatures features, int a, int b) {
+        int shared = 0;
+        int either = 0;
+        for(int feature = 0; feature < features.getNames().size(); feature++) {
+            shared += features.hasFeature(a, feature) && features.hasFeature(b, feature) ? 1 : 0;
+            either += features.hasFeature(a, feature) || features.hasFeature(b, feature) ? 1 : 0;
+        }
+        return either == 0 ? 0 : (double)shared / either;
+    }
+}
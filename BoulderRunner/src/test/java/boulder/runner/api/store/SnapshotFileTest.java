@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import boulder.runner.api.query.QueryEngine;
+
+/**
+ * Unit tests for writing and memory mapping trail snapshots
+ *
+ * @author Kniggit
+ */
+public class SnapshotFileTest {
+
+    // Hardcoded trails for these tests
+    private JSONArray testTrails = new JSONArray("[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"AccessName\":\"Flagstaff Summit West\"},"
+            + "{\"AccessID\":\"277\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"AccessName\":\"Flagstaff Summit East\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"Class\":\"T1\",\"AccessName\":\"East Boulder Trail at White Rocks\"},"
+            + "{\"AccessID\":\"417\",\"Fee\":\"No\",\"AccessName\":\"Buckingham Park\"}]");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test to verify a mapped snapshot answers queries exactly like the
+     * store it was written from
+     * @throws Exception
+     */
+    @Test
+    public void snapshotShouldRoundTrip() throws Exception {
+        TrailStore store = TrailStore.of(testTrails);
+        SnapshotFile snapshotFile = new SnapshotFile(new File(folder.getRoot(), "trails.snapshot").toPath());
+        snapshotFile.write(store, "\"v1\"", 1234L);
+
+        SnapshotFile.Contents contents = snapshotFile.read();
+        TrailStore mapped = contents.getStore();
+        assertEquals("\"v1\"", contents.getEtag());
+        assertEquals(1234L, contents.getLastModified());
+        assertNull(mapped.getSource());
+        assertEquals(store.size(), mapped.size());
+        assertEquals(store.getAttributes(), mapped.getAttributes());
+
+        BitSet all = new BitSet();
+        all.set(0, store.size());
+        assertArrayEquals(store.encode(all), mapped.encode(all));
+
+        QueryEngine engine = new QueryEngine(0);
+        Map<String, List<String>> filters = new LinkedHashMap<String, List<String>>();
+        filters.put("Fee", Collections.singletonList("No"));
+        assertEquals(engine.find(store, filters), engine.find(mapped, filters));
+        filters.put("Class", Collections.singletonList("T1"));
+        assertArrayEquals(store.encode(engine.find(store, filters)), mapped.encode(engine.find(mapped, filters)));
+        assertEquals("502a", mapped.getTrail(2).getString("AccessID"));
+    }
+
+    /**
+     * Test to verify the caching headers are replaced in place and the
+     * trails are kept
+     * @throws Exception
+     */
+    @Test
+    public void validatorsShouldBeUpdatedInPlace() throws Exception {
+        TrailStore store = TrailStore.of(testTrails);
+        SnapshotFile snapshotFile = new SnapshotFile(new File(folder.getRoot(), "trails.snapshot").toPath());
+        snapshotFile.write(store, "\"v1\"", 1234L);
+        long length = Files.size(snapshotFile.getPath());
+
+        snapshotFile.writeValidators("\"version-2\"", 5678L);
+        assertEquals(length, Files.size(snapshotFile.getPath()));
+        SnapshotFile.Contents contents = snapshotFile.read();
+        assertEquals("\"version-2\"", contents.getEtag());
+        assertEquals(5678L, contents.getLastModified());
+        assertEquals("502a", contents.getStore().getTrail(2).getString("AccessID"));
+
+        // Too long to keep
+        char[] etag = new char[SnapshotFile.MAX_ETAG_BYTES + 1];
+        Arrays.fill(etag, 'x');
+        snapshotFile.writeValidators(new String(etag), 0);
+        assertNull(snapshotFile.read().getEtag());
+    }
+
+    /**
+     * Test to verify a file that is not a snapshot is rejected
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void corruptSnapshotShouldBeRejected() throws Exception {
+        File file = folder.newFile("trails.snapshot");
+        Files.write(file.toPath(), "AccessID,Fee".getBytes("UTF-8"));
+
+        new SnapshotFile(file.toPath()).read();
+    }
+}
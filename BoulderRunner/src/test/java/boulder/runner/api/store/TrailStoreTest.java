@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package boulder.runner.api.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import boulder.runner.api.query.QueryEngine;
+
+/**
+ * Unit tests for the indexed TrailStore
+ *
+ * @author Kniggit
+ */
+public class TrailStoreTest {
+
+    // Hardcoded trails for these tests
+    private JSONArray testTrails = new JSONArray("[{\"AccessID\":\"279\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"BikeRack\":\"No\"},"
+            + "{\"AccessID\":\"277\",\"Fee\":\"Yes\",\"Class\":\"T3\",\"BikeRack\":\"Yes\"},"
+            + "{\"AccessID\":\"502a\",\"Fee\":\"No\",\"Class\":\"T1\",\"BikeRack\":\"Yes\"},"
+            + "{\"AccessID\":\"417\",\"Fee\":\"No\",\"Class\":\"T3\"}]");
+
+    /**
+     * Test to verify repeated values are stored once in the dictionary
+     * and trails without the attribute are marked as missing
+     */
+    @Test
+    public void columnsShouldBeDictionaryEncoded() {
+        TrailStore store = TrailStore.of(testTrails);
+
+        TrailColumn fee = store.getColumn("Fee");
+        assertEquals(2, fee.getCardinality());
+        assertEquals(fee.getCode(0), fee.getCode(1));
+        assertEquals("No", fee.getValue(fee.getCode(2)));
+
+        TrailColumn bikeRack = store.getColumn("BikeRack");
+        assertEquals(TrailColumn.MISSING, bikeRack.getCode(3));
+        assertNull(store.getColumn("Grills"));
+    }
+
+    /**
+     * Test to verify several parameters are intersected
+     */
+    @Test
+    public void findShouldIntersectParameters() {
+        TrailStore store = TrailStore.of(testTrails);
+
+        Map<String, List<String>> filters = new LinkedHashMap<String, List<String>>();
+        filters.put("Class", Collections.singletonList("T3"));
+        filters.put("BikeRack", Collections.singletonList("Yes"));
+
+        BitSet expected = new BitSet();
+        expected.set(1);
+        assertEquals(expected, new QueryEngine(0).find(store, filters));
+    }
+
+    /**
+     * Test to verify unknown attributes and values match nothing
+     */
+    @Test
+    public void unknownAttributeOrValueShouldMatchNothing() {
+        TrailStore store = TrailStore.of(testTrails);
+
+        QueryEngine engine = new QueryEngine(0);
+        assertEquals(0, engine.find(store, Collections.singletonMap("Grills", Collections.singletonList("Yes")))
+                .cardinality());
+        assertEquals(0, engine.find(store, Collections.singletonMap("Fee", Collections.singletonList("Maybe")))
+                .cardinality());
+    }
+}